@@ -0,0 +1,92 @@
+package bot;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Measures webhook ingestion without Telegram: starts a WebhookServer on a free local port with a
+ * counting consumer and POSTs synthetic /check updates to it from many concurrent clients.
+ * Usage: WebhookLoadHarness [updates] [concurrency] [chats]
+ */
+public class WebhookLoadHarness {
+    private static final String PATH = "/telegram";
+    private static final String SECRET = "harness-secret";
+
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int chats = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        LongAdder received = new LongAdder();
+        WebhookServer server = new WebhookServer("127.0.0.1", 0, PATH, SECRET, update -> {
+            if (update.hasMessage())
+                received.increment();
+        });
+        server.start();
+
+        URI target = URI.create("http://127.0.0.1:" + server.port() + PATH);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        long[] latenciesNanos = new long[updates];
+        LongAdder failed = new LongAdder();
+        AtomicLong nextUpdate = new AtomicLong();
+        Semaphore inFlight = new Semaphore(concurrency);
+
+        long start = System.nanoTime();
+        try (ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < updates; i++) {
+                inFlight.acquire();
+                int index = i;
+                senders.execute(() -> {
+                    try {
+                        long updateId = nextUpdate.incrementAndGet();
+                        HttpRequest request = HttpRequest.newBuilder(target)
+                                .header("Content-Type", "application/json")
+                                .header("X-Telegram-Bot-Api-Secret-Token", SECRET)
+                                .POST(HttpRequest.BodyPublishers.ofString(syntheticUpdate(updateId, updateId % chats)))
+                                .build();
+                        long sent = System.nanoTime();
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        latenciesNanos[index] = System.nanoTime() - sent;
+                        if (response.statusCode() != 200)
+                            failed.increment();
+                    } catch (Exception sendFailed) {
+                        failed.increment();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        server.stop();
+
+        Arrays.sort(latenciesNanos);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%d updates, %d clients: %.0f updates/s, %d dispatched, %d failed%n",
+                updates, concurrency, updates / seconds, received.sum(), failed.sum());
+        System.out.printf("latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                millis(latenciesNanos, 0.50), millis(latenciesNanos, 0.99), millis(latenciesNanos, 1.0));
+    }
+
+    private static double millis(long[] sortedNanos, double quantile) {
+        int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(quantile * sortedNanos.length) - 1);
+        return TimeUnit.NANOSECONDS.toMicros(sortedNanos[Math.max(0, index)]) / 1000.0;
+    }
+
+    private static String syntheticUpdate(long updateId, long chatId) {
+        return "{\"update_id\":" + updateId + ",\"message\":{\"message_id\":" + updateId
+                + ",\"date\":" + (System.currentTimeMillis() / 1000)
+                + ",\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"}"
+                + ",\"from\":{\"id\":" + chatId + ",\"first_name\":\"load\",\"is_bot\":false}"
+                + ",\"text\":\"/check example" + (updateId % 100) + ".com\"}}";
+    }
+}
@@ -0,0 +1,139 @@
+package connectiontest;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Stand-ins for the outside world on 127.0.0.1: a TCP listener accepting and dropping connections
+ * (the "website"), a JSON DNS-over-HTTPS endpoint answering every name with 127.0.0.1 and ::1
+ * but NXDOMAIN for *.invalid (and 404 everywhere else, an answer HTTP probes count as up) and a UDP
+ * DNS server refusing every query.
+ * point() sets the system properties IsDownCheckHelper reads, so it must run before that class
+ * is first used in the JVM.
+ */
+final class LoopbackServers implements AutoCloseable {
+    private final ServerSocket website;
+    private final Thread acceptor;
+    private final HttpServer dnsOverHttps;
+    private final ExecutorService dohHandlers = Executors.newVirtualThreadPerTaskExecutor();
+    private final DatagramChannel dns;
+    private final Thread dnsResponder;
+
+    LoopbackServers(int dnsTtlSeconds) throws IOException {
+        this(dnsTtlSeconds, 0);
+    }
+
+    // dohDelayMillis holds every DNS-over-HTTPS answer back, system DNS then wins the race
+    LoopbackServers(int dnsTtlSeconds, int dohDelayMillis) throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        website = new ServerSocket(0, 1024, loopback);
+        acceptor = new Thread(this::acceptLoop, "loopback-website");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        byte[] a = answer(0, 1, dnsTtlSeconds, "127.0.0.1");
+        byte[] aaaa = answer(0, 28, dnsTtlSeconds, "::1");
+        byte[] nxDomain = "{\"Status\":3}".getBytes(StandardCharsets.UTF_8);
+        // without it every answer waits out a delayed ACK (40 ms on Linux) between headers and body
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        dnsOverHttps = HttpServer.create(new InetSocketAddress(loopback, 0), 1024);
+        dnsOverHttps.setExecutor(dohHandlers);
+        dnsOverHttps.createContext("/resolve", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            byte[] answer = query.contains(".invalid") ? nxDomain : query.contains("type=28") ? aaaa : a;
+            if (dohDelayMillis > 0) {
+                try {
+                    Thread.sleep(dohDelayMillis);
+                } catch (InterruptedException stopping) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/dns-json");
+            exchange.sendResponseHeaders(200, answer.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(answer);
+            }
+        });
+        dnsOverHttps.start();
+
+        dns = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        dnsResponder = new Thread(this::dnsLoop, "loopback-dns");
+        dnsResponder.setDaemon(true);
+        dnsResponder.start();
+    }
+
+    private static byte[] answer(int status, int type, int ttlSeconds, String address) {
+        return ("{\"Status\":" + status + ",\"Answer\":[{\"type\":" + type + ",\"TTL\":" + ttlSeconds
+                + ",\"data\":\"" + address + "\"}]}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    String dohUrl() {
+        return "http://127.0.0.1:" + dnsOverHttps.getAddress().getPort() + "/resolve?name=";
+    }
+
+    // the DoH stand-in doubles as the web server for HTTP probes
+    InetSocketAddress httpServer() {
+        return dnsOverHttps.getAddress();
+    }
+
+    InetSocketAddress dnsServer() throws IOException {
+        return (InetSocketAddress) dns.getLocalAddress();
+    }
+
+    void point() {
+        System.setProperty("isdownbot.probePort", Integer.toString(website.getLocalPort()));
+        System.setProperty("isdownbot.dohUrl", dohUrl());
+    }
+
+    private void acceptLoop() {
+        while (!website.isClosed()) {
+            try {
+                Socket accepted = website.accept();
+                accepted.close(); // connecting is all a probe does
+            } catch (IOException closed) {
+                return;
+            }
+        }
+    }
+
+    // echoes the query back as a REFUSED response
+    private void dnsLoop() {
+        ByteBuffer packet = ByteBuffer.allocate(512);
+        while (dns.isOpen()) {
+            try {
+                packet.clear();
+                SocketAddress client = dns.receive(packet);
+                packet.flip();
+                if (packet.remaining() < 12)
+                    continue;
+                packet.put(2, (byte) (packet.get(2) | 0x80)).put(3, (byte) 5);
+                dns.send(packet, client);
+            } catch (ClosedChannelException closed) {
+                return;
+            } catch (IOException sendFailed) {
+                // the prober gave up already
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        dns.close();
+        dnsOverHttps.stop(0);
+        dohHandlers.shutdownNow();
+        website.close();
+    }
+}
@@ -0,0 +1,65 @@
+package connectiontest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/*
+ * One probe of each strategy through the shared engine against the loopback servers:
+ * what a TCP connect, an HTTP HEAD and a UDP DNS query cost on top of each other.
+ * Every probe must succeed, a failing one throws so a broken strategy can't look fast.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ProbeBenchmark {
+    private static final int TIMEOUT_MILLIS = 2000;
+
+    @Param({"tcp", "http", "dns"})
+    public String probe;
+
+    private LoopbackServers servers;
+    private Probe strategy;
+    private InetSocketAddress target;
+
+    @Setup
+    public void setUp() throws IOException {
+        Logger.getLogger("").setLevel(java.util.logging.Level.WARNING);
+        servers = new LoopbackServers(300);
+        servers.point();
+        strategy = Probe.forScheme(probe);
+        target = strategy == Probe.DNS ? servers.dnsServer() : servers.httpServer();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        servers.close();
+    }
+
+    @Benchmark
+    public ProbeResult probe() {
+        ProbeResult result = IsDownCheckHelper.probe(strategy, "localhost", target, null, TIMEOUT_MILLIS).join();
+        if (!result.isAvailable())
+            throw new IllegalStateException("Loopback probe failed: " + result);
+        return result;
+    }
+}
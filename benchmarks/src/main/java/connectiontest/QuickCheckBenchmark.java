@@ -0,0 +1,77 @@
+package connectiontest;
+
+import database.DBHandler;
+import database.ScratchDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/*
+ * DownChecker.quickCheck end to end: database access bookkeeping, DNS through the cache and the
+ * DoH stand-in, a TCP connect to the loopback listener and the reply text. Short DNS TTLs make
+ * part of the checks go through the DoH endpoint again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class QuickCheckBenchmark {
+    private static final int HOSTS = 1000;
+    private static final int USERS = 10_000;
+
+    @Param({"5", "300"})
+    public int dnsTtlSeconds;
+
+    @Param({"false", "true"})
+    public boolean coalesce;
+
+    private LoopbackServers servers;
+    private ScratchDatabase scratch;
+    private DBHandler dbHandler;
+    private CheckCoalescer coalescer;
+
+    @State(Scope.Thread)
+    public static class Caller {
+        int next = 0;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        Logger.getLogger("").setLevel(java.util.logging.Level.WARNING);
+        servers = new LoopbackServers(dnsTtlSeconds);
+        servers.point();
+        scratch = new ScratchDatabase();
+        dbHandler = scratch.open();
+        coalescer = coalesce ? new CheckCoalescer(3000) : null;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dbHandler.close();
+        scratch.close();
+        servers.close();
+    }
+
+    @Benchmark
+    public String quickCheck(Caller caller) {
+        int n = caller.next++;
+        return new DownChecker(dbHandler, "site" + (n % HOSTS) + ".bench", n % USERS, coalescer, null).quickCheck();
+    }
+}
@@ -0,0 +1,125 @@
+package connectiontest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * String handling on every command: url to host, proxy ip checks and ip to number for country lookups.
+ * The legacy* benchmarks keep the substring/split/regex versions HostParser replaced as a baseline,
+ * run with -prof gc to compare allocations as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlParsingBenchmark {
+    // what users actually type after /check
+    private static final String[] URLS = {
+            "example.com",
+            "www.google.com",
+            "http://example.com/",
+            "https://en.wikipedia.org/wiki/Special:Random",
+            "https://sub.domain.example.co.uk/a/b/c?query=1&other=2",
+            "http://93.184.216.34/index.html",
+            "t.me",
+            "https://github.com/",
+            "https://user@Example.org:8443/login",
+            "http://[2001:db8::1]:8080/",
+            "https://пример.рф/",
+            "example.com?utm_source=chat",
+            "http://10.0.0.1:3128",
+            "api.telegram.org",
+            "https://www.example.com/#top",
+            "ftp://files.example.net/pub/",
+    };
+    private static final String[] IPS = {
+            "93.184.216.34", "8.8.8.8", "192.168.1.254", "10.0.0.1",
+            "255.255.255.255", "1.2.3.4", "172.16.254.1", "127.0.0.1",
+    };
+    private static final String[] MAYBE_IPS = {
+            "93.184.216.34", "example.com", "1.2.3.4", "256.1.1.1",
+            "2001:db8::1", "proxy.example.org", "10.0.0.1", "1a2b3c4d5e6f7",
+    };
+    private static final String[] MAYBE_IPV6 = {
+            "2001:db8::1", "::1", "fe80::1%eth0", "1:2:3:4:5:6:7:8",
+            "::ffff:93.184.216.34", "93.184.216.34", "example.com", "1::2::3",
+    };
+    private static final String LEGACY_IPV4_REGEX = "\\d{1,3}.\\d{1,3}.\\d{1,3}.\\d{1,3}";
+
+    private int next = 0;
+
+    private int nextIndex() {
+        next = (next + 1) & 7;
+        return next;
+    }
+
+    // plain hosts and urls alike, the first eight are what the legacy parser understood
+    private int nextUrlIndex() {
+        next = (next + 1) & 15;
+        return next;
+    }
+
+    @Benchmark
+    public String parseUrl() {
+        return IsDownCheckHelper.parseUrl(URLS[nextIndex()]);
+    }
+
+    @Benchmark
+    public String parseUrlAllForms() {
+        return IsDownCheckHelper.parseUrl(URLS[nextUrlIndex()]);
+    }
+
+    @Benchmark
+    public String legacyParseUrl() {
+        String url = URLS[nextIndex()];
+        if (url.startsWith("http"))
+            url = url.substring(url.indexOf('/') + 2);
+        int path = url.indexOf('/');
+        if (path != -1)
+            url = url.substring(0, path);
+        return url;
+    }
+
+    @Benchmark
+    public long ipStringToLong() {
+        return IsDownCheckHelper.ipStringToLong(IPS[nextIndex()]);
+    }
+
+    @Benchmark
+    public long legacyIpStringToLong() {
+        long accumulator = 0L;
+        long multiplier = 1L;
+        String[] ipChunks = IPS[nextIndex()].split("\\.");
+        for (int i = ipChunks.length - 1; i >= 0; i--) {
+            accumulator += Integer.parseInt(ipChunks[i]) * multiplier;
+            multiplier *= 256;
+        }
+        return accumulator;
+    }
+
+    @Benchmark
+    public boolean isIPv4() {
+        return IsDownCheckHelper.isIPv4(MAYBE_IPS[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean legacyIsIPv4() {
+        return MAYBE_IPS[nextIndex()].matches(LEGACY_IPV4_REGEX);
+    }
+
+    @Benchmark
+    public boolean isIPv6() {
+        return HostParser.isIPv6(MAYBE_IPV6[nextIndex()]);
+    }
+}
@@ -0,0 +1,100 @@
+package database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static cfg.Configuration.URL_TABLE;
+
+/*
+ * DBHandler.accessedLastNMinutes after loading historySize accesses spread over the last 24 hours.
+ * Hosts are skewed like real traffic: a few popular sites get most of the checks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessHistoryBenchmark {
+    private static final int HOSTS = 1000;
+    private static final int USERS = 50_000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int historySize;
+
+    @Param({"120", "1440"})
+    public int windowMinutes;
+
+    private ScratchDatabase scratch;
+    private DBHandler dbHandler;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        scratch = new ScratchDatabase();
+        scratch.open().close(); // schema only
+        long now = System.currentTimeMillis();
+        long day = TimeUnit.DAYS.toMillis(1);
+        Random random = new Random(42);
+        try (Connection connection = scratch.connect()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + URL_TABLE + " VALUES (?,?,?)")) {
+                for (int i = 0; i < historySize; i++) {
+                    insert.setString(1, host(skewed(random)));
+                    insert.setLong(2, random.nextInt(USERS));
+                    insert.setLong(3, now - (long) (random.nextDouble() * day));
+                    insert.addBatch();
+                    if (i % 10_000 == 9_999)
+                        insert.executeBatch();
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        }
+        dbHandler = scratch.open();
+    }
+
+    @TearDown
+    public void tearDown() {
+        dbHandler.close();
+        scratch.close();
+    }
+
+    // cube of a uniform number: host 0 gets about a tenth of all accesses
+    private static int skewed(Random random) {
+        double uniform = random.nextDouble();
+        return (int) (uniform * uniform * uniform * HOSTS);
+    }
+
+    private static String host(int index) {
+        return "site" + index + ".example";
+    }
+
+    @Benchmark
+    public long popularHost() {
+        return dbHandler.accessedLastNMinutes(host(0), windowMinutes);
+    }
+
+    @Benchmark
+    public long anyHost() {
+        next = (next + 1) % HOSTS;
+        return dbHandler.accessedLastNMinutes(host(next), windowMinutes);
+    }
+}
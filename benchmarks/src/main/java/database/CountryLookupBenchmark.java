@@ -0,0 +1,53 @@
+package database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// DBHandler.getCountry over the full ip2nation range table, random IPv4 addresses
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountryLookupBenchmark {
+    private static final int ADDRESSES = 4096; // power of two, indexed with a mask
+
+    private ScratchDatabase scratch;
+    private DBHandler dbHandler;
+    private final long[] addresses = new long[ADDRESSES];
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        scratch = new ScratchDatabase();
+        dbHandler = scratch.open();
+        Random random = new Random(42);
+        for (int i = 0; i < ADDRESSES; i++)
+            addresses[i] = random.nextInt() & 0xFFFFFFFFL;
+    }
+
+    @TearDown
+    public void tearDown() {
+        dbHandler.close();
+        scratch.close();
+    }
+
+    @Benchmark
+    public String getCountry() {
+        return dbHandler.getCountry(addresses[next++ & (ADDRESSES - 1)]);
+    }
+}
@@ -0,0 +1,82 @@
+package database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// DBHandler.getUserProxyList served from its cache and loaded (queried and parsed) from the database
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyListBenchmark {
+    private static final int USERS = 1000;
+
+    @Param({"1", "10", "50"})
+    public int proxiesPerUser;
+
+    private ScratchDatabase scratch;
+    private DBHandler dbHandler;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        scratch = new ScratchDatabase();
+        scratch.open().close(); // schema only
+        try (Connection connection = scratch.connect()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO user_proxies (userId, host, port) VALUES (?, ?, ?)")) {
+                for (int user = 0; user < USERS; user++) {
+                    for (int p = 0; p < proxiesPerUser; p++) {
+                        insert.setLong(1, user);
+                        insert.setString(2, "10." + (user >> 8) + '.' + (user & 0xFF) + '.' + p);
+                        insert.setInt(3, 1080 + p);
+                        insert.addBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        }
+        dbHandler = scratch.open();
+    }
+
+    @TearDown
+    public void tearDown() {
+        dbHandler.close();
+        scratch.close();
+    }
+
+    @Benchmark
+    public List<Proxy> cached() {
+        next = (next + 1) % USERS;
+        return dbHandler.getUserProxyList(next);
+    }
+
+    @Benchmark
+    public List<Proxy> loaded() {
+        next = (next + 1) % USERS;
+        dbHandler.invalidateUserProxies(next);
+        return dbHandler.getUserProxyList(next);
+    }
+}
@@ -0,0 +1,58 @@
+package database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/*
+ * Throwaway bot database in a temporary directory, with the real ip2nation data for country
+ * lookups (-Disdownbot.countryDb=path, by default ip2nation.sqlite in or above the working directory).
+ */
+public final class ScratchDatabase implements AutoCloseable {
+    private final Path directory;
+    private final String botDbFilename;
+    private final String countryDbFilename;
+
+    public ScratchDatabase() throws IOException {
+        directory = Files.createTempDirectory("isdownbot-bench");
+        botDbFilename = directory.resolve("bot.sqlite").toString();
+        countryDbFilename = findCountryDb();
+    }
+
+    private static String findCountryDb() {
+        String configured = System.getProperty("isdownbot.countryDb");
+        if (configured != null)
+            return configured;
+        for (Path candidate : new Path[]{Paths.get("ip2nation.sqlite"), Paths.get("..", "ip2nation.sqlite")}) {
+            if (Files.isRegularFile(candidate))
+                return candidate.toString();
+        }
+        throw new IllegalStateException("ip2nation.sqlite not found, run from the repository root or set -Disdownbot.countryDb");
+    }
+
+    // creates the schema on first use
+    public DBHandler open() {
+        return new DBHandler(botDbFilename, countryDbFilename);
+    }
+
+    // raw access for filling tables in, DBHandler must have been opened (and closed) once before
+    public Connection connect() throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + botDbFilename);
+    }
+
+    @Override
+    public void close() {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException cleanupFailed) {
+            throw new UncheckedIOException(cleanupFailed);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package bot;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Per-chat rate limiting with a token bucket kept as one AtomicLong per chat (GCRA form: the
+ * bucket is the "theoretical arrival time" of the next command), so admitting is a single CAS.
+ * Decisions are counted in the metrics registry.
+ */
+class AdmissionController {
+    private static final long CLEANUP_INTERVAL_MILLIS = 60_000;
+
+    private final long emissionIntervalMillis;  // one token is refilled every interval
+    private final long burstToleranceMillis;    // (burst - 1) intervals may be used up front
+    private final ConcurrentHashMap<Long, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Long> lastNotice = new ConcurrentHashMap<>();
+    private final AtomicLong lastCleanup = new AtomicLong(System.currentTimeMillis());
+
+    private final Counter admitted = Metrics.counter("isdownbot_commands_admitted_total", "Commands accepted for execution");
+    private final Counter rateLimited = Metrics.counter("isdownbot_commands_rejected_total",
+            "Commands refused", "reason", "rate_limited");
+    private final Counter shed = Metrics.counter("isdownbot_commands_rejected_total",
+            "Commands refused", "reason", "overloaded");
+
+    AdmissionController(int burst, long refillIntervalMillis) {
+        this.emissionIntervalMillis = refillIntervalMillis;
+        this.burstToleranceMillis = (burst - 1) * refillIntervalMillis;
+    }
+
+    // 0 if the command is admitted, otherwise millis until the chat may send the next one
+    long tryAdmit(long chatId) {
+        long now = System.currentTimeMillis();
+        cleanUpIfDue(now);
+        AtomicLong bucket = buckets.computeIfAbsent(chatId, id -> new AtomicLong(now));
+        while (true) {
+            long arrival = bucket.get();
+            long earliest = Math.max(arrival, now);
+            long waitMillis = earliest - burstToleranceMillis - now;
+            if (waitMillis > 0) {
+                rateLimited.increment();
+                return waitMillis;
+            }
+            if (bucket.compareAndSet(arrival, earliest + emissionIntervalMillis)) {
+                admitted.increment();
+                return 0;
+            }
+        }
+    }
+
+    // rejected chats are told once per rejection period, not for every message of a flood
+    boolean shouldNotify(long chatId, long retryAfterMillis) {
+        long now = System.currentTimeMillis();
+        Long previous = lastNotice.get(chatId);
+        if (previous != null && now - previous < retryAfterMillis)
+            return false;
+        return previous == null
+                ? lastNotice.putIfAbsent(chatId, now) == null
+                : lastNotice.replace(chatId, previous, now);
+    }
+
+    void recordShed() {
+        shed.increment();
+    }
+
+    long admitted() {
+        return admitted.sum();
+    }
+
+    long rateLimited() {
+        return rateLimited.sum();
+    }
+
+    long shed() {
+        return shed.sum();
+    }
+
+    // buckets that refilled completely carry no state worth keeping
+    private void cleanUpIfDue(long now) {
+        long last = lastCleanup.get();
+        if (now - last < CLEANUP_INTERVAL_MILLIS || !lastCleanup.compareAndSet(last, now))
+            return;
+        buckets.values().removeIf(bucket -> bucket.get() < now);
+        lastNotice.values().removeIf(noticeTime -> now - noticeTime > CLEANUP_INTERVAL_MILLIS);
+    }
+}
@@ -0,0 +1,418 @@
+package bot;
+
+import connectiontest.CheckCoalescer;
+import connectiontest.CheckFrontEnd;
+import connectiontest.CheckQueue;
+import connectiontest.DownChecker;
+import connectiontest.LoopbackCheckQueue;
+import connectiontest.ProbeResult;
+import connectiontest.ProbeWorker;
+import connectiontest.ProxyHealthMonitor;
+import connectiontest.WatchScheduler;
+import database.DBHandler;
+import metrics.Counter;
+import metrics.Metrics;
+
+import org.telegram.telegrambots.api.objects.Update;
+import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static cfg.Configuration.BOT_TOKEN;
+import static cfg.Configuration.BOT_USERNAME;
+
+public class BotInstance extends TelegramLongPollingBot {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    // "virtual" (default) or "fixed" for the old availableProcessors()-sized pool
+    private static final String EXECUTION_MODE = System.getProperty("isdownbot.executionMode", "virtual");
+    private static final int GLOBAL_COMMAND_LIMIT = Integer.getInteger("isdownbot.globalCommandLimit", 256);
+    private static final int USER_COMMAND_LIMIT = Integer.getInteger("isdownbot.userCommandLimit", 2);
+    // per user: bursts of USER_BURST commands, then one every USER_REFILL_MILLIS
+    private static final int USER_BURST = Integer.getInteger("isdownbot.userBurst", 5);
+    private static final long USER_REFILL_MILLIS = Long.getLong("isdownbot.userRefillMillis", 3000);
+    private static final int MAX_PENDING_COMMANDS = Integer.getInteger("isdownbot.maxPendingCommands", 1000);
+    private static final long CHECK_RESULT_CACHE_MILLIS = Long.getLong("isdownbot.checkCacheMillis", 3000);
+    // how long a fullCheck and its consensus are reused for checks of the host through the same proxies
+    private static final long FULL_CHECK_CACHE_MILLIS = Long.getLong("isdownbot.fullCheckCacheMillis", 15_000);
+    // "local" (default) runs checks in the command's thread, "split" publishes them to probe workers
+    private static final String CHECK_MODE = System.getProperty("isdownbot.checkMode", "local");
+    private static final int PROBE_WORKERS = Integer.getInteger("isdownbot.probeWorkers", 4);
+    private static final int JOBS_PER_WORKER = Integer.getInteger("isdownbot.jobsPerWorker", 64);
+    private static final long CHECK_JOB_TIMEOUT_MILLIS = Long.getLong("isdownbot.checkJobTimeoutMillis", 60_000);
+    // comma-separated chat ids allowed to use admin commands (/stats)
+    private static final Set<Long> ADMIN_CHAT_IDS = Stream.of(System.getProperty("isdownbot.adminChatIds", "").split(","))
+            .map(String::trim).filter(id -> !id.isEmpty()).map(Long::valueOf).collect(Collectors.toSet());
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+    // "/check get <url>", the url being checked is never read for bot options
+    private static final String GET_ARGUMENT = "get ";
+
+    private DBHandler dbConnection;
+    private CheckCoalescer checkCoalescer;
+    private CheckQueue checkQueue = null;           // split mode only
+    private CheckFrontEnd checkFrontEnd = null;     // split mode only
+    private List<ProbeWorker> probeWorkers = new ArrayList<>();
+    private ProxyHealthMonitor proxyHealthMonitor;
+    private WatchScheduler watchScheduler;
+    private CommandExecutor commandExecutor;
+    private AdmissionController admissionController;
+    private MessageDispatcher messageDispatcher;
+    private final Counter updatesReceived = Metrics.counter("isdownbot_updates_total", "Updates received from Telegram");
+    private Map<String, BiConsumer<String, Long>> argRequestMapping = new HashMap<>();
+    private Map<String, Consumer<Long>> noArgRequestMapping = new HashMap<>();
+    private static final Logger logger = Logger.getLogger(BotInstance.class.getName());
+
+    public BotInstance() {
+        dbConnection = new DBHandler();
+        checkCoalescer = new CheckCoalescer(CHECK_RESULT_CACHE_MILLIS, FULL_CHECK_CACHE_MILLIS);
+        proxyHealthMonitor = new ProxyHealthMonitor(dbConnection);
+        proxyHealthMonitor.start();
+        commandExecutor = new CommandExecutor(CommandExecutor.parseMode(EXECUTION_MODE),
+                                                GLOBAL_COMMAND_LIMIT, USER_COMMAND_LIMIT, MAX_PENDING_COMMANDS);
+        admissionController = new AdmissionController(USER_BURST, USER_REFILL_MILLIS);
+        messageDispatcher = new MessageDispatcher(method -> execute(method));
+        watchScheduler = new WatchScheduler(dbConnection, this::onWatchedStateChanged);
+        watchScheduler.start();
+        if ("split".equalsIgnoreCase(CHECK_MODE))
+            startProbeWorkers();
+
+        argRequestMapping.put("/check", this::checkCommandHandler);
+        argRequestMapping.put("/fullCheck", this::fullCheckCommandHandler);
+        argRequestMapping.put("/addProxy", this::addProxyCommandHandler);
+        argRequestMapping.put("/setTimeout", this::setTimeoutCommandHandler);
+        argRequestMapping.put("/watch", this::watchCommandHandler);
+        argRequestMapping.put("/unwatch", this::unwatchCommandHandler);
+
+        noArgRequestMapping.put("/start", this::startCommandHandler);
+        noArgRequestMapping.put("/clearProxy", this::clearProxyCommandHandler);
+        noArgRequestMapping.put("/watches", this::watchesCommandHandler);
+        noArgRequestMapping.put("/stats", this::statsCommandHandler);
+    }
+
+    // stops taking commands, lets running ones finish, sends their replies and flushes the database
+    public void shutdown() {
+        try {
+            commandExecutor.shutdown(SHUTDOWN_TIMEOUT_SECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        messageDispatcher.shutdown(SHUTDOWN_TIMEOUT_SECONDS);
+        if (checkQueue != null)
+            checkQueue.close();
+        probeWorkers.forEach(ProbeWorker::shutdown);
+        watchScheduler.shutdown();
+        proxyHealthMonitor.shutdown();
+        dbConnection.close();
+    }
+
+    // the workers live in this process behind a LoopbackCheckQueue; with a broker-backed CheckQueue
+    // they run as separate ProbeWorker processes instead
+    private void startProbeWorkers() {
+        checkQueue = new LoopbackCheckQueue(LoopbackCheckQueue.workerNames(PROBE_WORKERS));
+        for (String worker : checkQueue.workers()) {
+            ProbeWorker probeWorker = new ProbeWorker(worker, checkQueue, proxyHealthMonitor,
+                                                      CHECK_RESULT_CACHE_MILLIS, FULL_CHECK_CACHE_MILLIS, JOBS_PER_WORKER);
+            probeWorker.start();
+            probeWorkers.add(probeWorker);
+        }
+        checkFrontEnd = new CheckFrontEnd(checkQueue, dbConnection, CHECK_JOB_TIMEOUT_MILLIS);
+        logger.info("Checks run by " + probeWorkers.size() + " probe workers");
+    }
+
+    private void runParallel(BiConsumer<String, Long> telegramCommand, String command, long userId) {
+        boolean accepted = commandExecutor.trySubmit(userId,
+                () -> telegramCommand.accept(command, userId)
+                );
+        if (!accepted) {
+            // shedding load instead of building a backlog nobody waits for
+            admissionController.recordShed();
+            long retryAfterMillis = Math.max(1000, commandExecutor.estimatedWaitMillis());
+            logger.warning("Shed command of user " + userId + ", " + commandExecutor.pending() + " commands pending");
+            sendBusyMessage(userId, retryAfterMillis);
+        }
+    }
+
+    private void sendBusyMessage(long chatId, long retryAfterMillis) {
+        if (!admissionController.shouldNotify(chatId, retryAfterMillis))
+            return;
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(retryAfterMillis + 999);
+        messageDispatcher.send(chatId, "Bot is busy, try again in " + seconds + " s");
+    }
+
+    private void startCommandHandler(long chatId) {
+        boolean succeeded = dbConnection.addUser(chatId);
+        if (succeeded) {
+            messageDispatcher.send(chatId, "Welcome to isDown? bot. Now you can check any url for availability!");
+            logger.fine("New user! userId=" + chatId);
+        }
+    }
+
+    private void clearProxyCommandHandler(long chatId) {
+        boolean succeeded = dbConnection.clearUserProxy(chatId);
+        if (succeeded) {
+            messageDispatcher.send(chatId, "Proxy successfully cleared");
+            logger.fine("User " + chatId + " cleared proxies");
+        } else {
+            messageDispatcher.send(chatId, "Clearing proxy failed, try again later");
+            logger.warning("Failed to clear proxies for user " + chatId);
+        }
+    }
+
+    // "get <url>" asks http:// and https:// checks for GET instead of HEAD
+    private static String httpMethodOf(String args) {
+        return args.regionMatches(true, 0, GET_ARGUMENT, 0, GET_ARGUMENT.length()) ? DownChecker.GET : DownChecker.HEAD;
+    }
+
+    private static String urlOf(String args) {
+        return httpMethodOf(args).equals(DownChecker.GET) ? args.substring(GET_ARGUMENT.length()).trim() : args;
+    }
+
+    private void checkCommandHandler(String args, long chatId) {
+        String url = urlOf(args);
+        if (checkFrontEnd != null) {
+            try {
+                messageDispatcher.send(chatId, checkFrontEnd.quickCheck(url, httpMethodOf(args), chatId));
+                logger.fine("User " + chatId + " quickChecked \"" + url + "\"");
+            } catch (IllegalArgumentException badUrl) {
+                messageDispatcher.send(chatId, badUrl.getMessage());
+            }
+            return;
+        }
+        DownChecker checker = newChecker(url, httpMethodOf(args), chatId);
+        if (checker == null)
+            return;
+        messageDispatcher.send(chatId, checker.quickCheck());
+        logger.fine("User " + chatId + " quickChecked \"" + url + "\"");
+    }
+
+    // null (and the user told why) if the url can't be checked
+    private DownChecker newChecker(String url, String httpMethod, long chatId) {
+        try {
+            return new DownChecker(dbConnection, url, httpMethod, chatId, checkCoalescer, proxyHealthMonitor);
+        } catch (IllegalArgumentException badUrl) {
+            messageDispatcher.send(chatId, badUrl.getMessage());
+            return null;
+        }
+    }
+
+    private void addProxyCommandHandler(String proxyIpPort, long chatId) {
+        boolean succeeded = dbConnection.addUserProxy(chatId, proxyIpPort);
+        if (succeeded) {
+            messageDispatcher.send(chatId, "Proxy successfully added");
+            logger.fine("User " + chatId + " added proxy: " + proxyIpPort);
+        } else {
+            messageDispatcher.send(chatId, "Adding proxy failed. Please use working SOCKSv5 proxy by specifying 'ip.ip.ip.ip:port'");
+            logger.warning("User " + chatId + " failed to add proxy " + proxyIpPort);
+        }
+    }
+
+    private void fullCheckCommandHandler(String args, long chatId) {
+        String url = urlOf(args);
+        if (checkFrontEnd != null) {
+            ProgressiveReply reply = new ProgressiveReply(messageDispatcher, chatId);
+            try {
+                reply.update(checkFrontEnd.fullCheck(url, httpMethodOf(args), chatId, reply::update));
+                logger.fine("User " + chatId + " fullChecked \"" + url + "\"");
+            } catch (IllegalArgumentException badUrl) {
+                messageDispatcher.send(chatId, badUrl.getMessage());
+            }
+            return;
+        }
+        DownChecker checker = newChecker(url, httpMethodOf(args), chatId);
+        if (checker == null)
+            return;
+        // the reply appears with the fastest probe and is edited as the others finish
+        ProgressiveReply reply = new ProgressiveReply(messageDispatcher, chatId);
+        String summary = checker.fullCheck((address, proxy, result, report) -> reply.update(report));
+        reply.update(summary);
+        logger.fine("User " + chatId + " fullChecked \"" + url + "\"");
+    }
+
+    private void setTimeoutCommandHandler(String newTimeout, long chatId) {
+
+        try {
+            int timeOutMs = Integer.parseInt(newTimeout);
+            if (timeOutMs < DownChecker.MIN_TIMEOUT_MILLIS || timeOutMs > DownChecker.MAX_TIMEOUT_MILLIS) {
+                messageDispatcher.send(chatId, "Timeout must be between " + DownChecker.MIN_TIMEOUT_MILLIS + " and "
+                        + DownChecker.MAX_TIMEOUT_MILLIS + " ms");
+                logger.warning("Out of range /setTimeout argument (" + newTimeout + ") by user " + chatId);
+                return;
+            }
+            boolean succeeded = dbConnection.setCustomTimeout(timeOutMs, chatId);
+            if (succeeded) {
+                messageDispatcher.send(chatId, "New timeout set to " + newTimeout + " ms.");
+                logger.fine("User " + chatId + " has set new timeout: " + newTimeout);
+            } else {
+                messageDispatcher.send(chatId, "Setting new timeout failed, try again later.");
+                logger.warning("Failed to set new timeout (" + newTimeout + ") for user " + chatId);
+            }
+        } catch (NumberFormatException parseError) {
+            messageDispatcher.send(chatId, "Incorrect number given");
+            logger.warning("Wrong number entered as /setTimeout argument (" + newTimeout + ") by user " + chatId);
+        }
+    }
+
+    // "<url> <interval>", interval in minutes unless suffixed with s, m or h
+    private void watchCommandHandler(String args, long chatId) {
+        String[] urlAndInterval = args.split("\\s+");
+        int intervalSeconds = (urlAndInterval.length == 2) ? parseIntervalSeconds(urlAndInterval[1]) : -1;
+        if (intervalSeconds < WatchScheduler.MIN_INTERVAL_SECONDS || intervalSeconds > WatchScheduler.MAX_INTERVAL_SECONDS) {
+            messageDispatcher.send(chatId, "Usage: /watch url interval, e.g. /watch example.com 5m. Interval must be between "
+                    + WatchScheduler.describeInterval(WatchScheduler.MIN_INTERVAL_SECONDS) + " and "
+                    + WatchScheduler.describeInterval(WatchScheduler.MAX_INTERVAL_SECONDS));
+            logger.warning("Wrong /watch arguments (" + args + ") by user " + chatId);
+            return;
+        }
+        String url = urlAndInterval[0];
+        switch (watchScheduler.watch(chatId, url, intervalSeconds)) {
+            case ADDED:
+            case UPDATED:
+                messageDispatcher.send(chatId, "Watching " + url + " every " + WatchScheduler.describeInterval(intervalSeconds)
+                        + ". You will be notified when it goes down or comes back");
+                logger.fine("User " + chatId + " watches \"" + url + "\"");
+                break;
+            case LIMIT_REACHED:
+                messageDispatcher.send(chatId, "You can watch at most " + WatchScheduler.MAX_WATCHES_PER_USER
+                        + " sites, /unwatch one first");
+                break;
+            case INVALID_HOST:
+                messageDispatcher.send(chatId, "Incorrect url given");
+                break;
+            case UNSUPPORTED_PROBE:
+                messageDispatcher.send(chatId, "Only TCP connects to the default port can be watched, give the host name "
+                        + "without a port or a scheme other than tcp://, e.g. /watch example.com 5m");
+                break;
+            default:
+                messageDispatcher.send(chatId, "Watching failed, try again later");
+                break;
+        }
+    }
+
+    private void unwatchCommandHandler(String url, long chatId) {
+        switch (watchScheduler.unwatch(chatId, url)) {
+            case REMOVED:
+                messageDispatcher.send(chatId, "Stopped watching " + url);
+                logger.fine("User " + chatId + " unwatched \"" + url + "\"");
+                break;
+            case NOT_FOUND:
+                messageDispatcher.send(chatId, "You are not watching " + url);
+                break;
+            case INVALID_HOST:
+                messageDispatcher.send(chatId, "Incorrect url given");
+                break;
+            default:
+                messageDispatcher.send(chatId, "Unwatching failed, try again later");
+                break;
+        }
+    }
+
+    private void watchesCommandHandler(long chatId) {
+        List<String> watches = watchScheduler.watchesOf(chatId);
+        messageDispatcher.send(chatId, watches.isEmpty()
+                ? "You are not watching any site. Usage: /watch url interval"
+                : "Watching:\n" + String.join("\n", watches));
+    }
+
+    private void statsCommandHandler(long chatId) {
+        if (!ADMIN_CHAT_IDS.contains(chatId)) {
+            messageDispatcher.send(chatId, "No such command exists: /stats");
+            logger.warning("User " + chatId + " is not allowed to use /stats");
+            return;
+        }
+        String stats = Metrics.summary();
+        messageDispatcher.send(chatId, stats.length() > MAX_MESSAGE_LENGTH ? stats.substring(0, MAX_MESSAGE_LENGTH) : stats);
+    }
+
+    private void onWatchedStateChanged(long userId, String host, boolean up, ProbeResult probe) {
+        String details = (probe == null) ? "address not found" : up ? probe.getLatencyMillis() + " ms" : probe.getError();
+        messageDispatcher.send(userId, host + (up ? " is back online (" : " went offline (") + details + ")");
+    }
+
+    // -1 if malformed
+    private static int parseIntervalSeconds(String interval) {
+        int multiplier = 60;
+        char unit = interval.isEmpty() ? ' ' : interval.charAt(interval.length() - 1);
+        if (unit == 's' || unit == 'm' || unit == 'h') {
+            multiplier = (unit == 's') ? 1 : (unit == 'm') ? 60 : 3600;
+            interval = interval.substring(0, interval.length() - 1);
+        }
+        try {
+            return Math.multiplyExact(Integer.parseUnsignedInt(interval), multiplier);
+        } catch (NumberFormatException | ArithmeticException badInterval) {
+            return -1;
+        }
+    }
+
+    private void argCommandRouter(String updateMessageText, long chatId) {
+        String[] commandAndArgs = updateMessageText.split(" ", 2);
+
+        String command = commandAndArgs[0];
+        String args = commandAndArgs[1].trim().toLowerCase();
+
+        if (!argRequestMapping.containsKey(command)) {
+            messageDispatcher.send(chatId, "No such command exists: " + command);
+            logger.warning("User " + chatId + " entered wrong command: " + command);
+            return;
+        }
+
+        runParallel(argRequestMapping.get(command), args, chatId);
+    }
+
+    private void noArgCommandRouter(String updateMessageText, long chatId) {
+        if (!noArgRequestMapping.containsKey(updateMessageText)) {
+
+            if (argRequestMapping.containsKey(updateMessageText)) {
+                messageDispatcher.send(chatId, "No arguments given for command " + updateMessageText + ". Usage: /command args");
+                logger.warning("No arguments given for argCommand " + updateMessageText);
+                return;
+            }
+
+            messageDispatcher.send(chatId, "No such command exists: " + updateMessageText);
+            logger.warning("User " + chatId + " entered wrong command: " + updateMessageText);
+            return;
+        }
+
+        noArgRequestMapping.get(updateMessageText).accept(chatId);
+    }
+
+    @Override
+    public String getBotToken() {
+        return BOT_TOKEN;
+    }
+
+    @Override
+    public void onUpdateReceived(Update update) {
+        updatesReceived.increment();
+        if (update.hasMessage()) {
+            String updateMessageText = update.getMessage().getText().trim();
+            if (updateMessageText.startsWith("/")) {
+                long chatId = update.getMessage().getChatId();
+                long retryAfterMillis = admissionController.tryAdmit(chatId);
+                if (retryAfterMillis > 0) {
+                    logger.fine("Rate limited user " + chatId + " for " + retryAfterMillis + " ms");
+                    sendBusyMessage(chatId, retryAfterMillis);
+                    return;
+                }
+                if (updateMessageText.contains(" ")) {
+                    argCommandRouter(updateMessageText, update.getMessage().getChatId());
+                } else {
+                    noArgCommandRouter(updateMessageText, update.getMessage().getChatId());
+                }
+            } // endif isCommand
+        } // endif hasMessage
+    }
+
+    @Override
+    public String getBotUsername() {
+        return BOT_USERNAME;
+    }
+}
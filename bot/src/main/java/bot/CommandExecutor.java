@@ -0,0 +1,159 @@
+package bot;
+
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/*
+ * Runs bot commands either one virtual thread per command, bounded by a global and a per-user
+ * concurrency limit (blocked virtual threads are cheap, so waiting for a permit is the queue),
+ * or on the old fixed pool of availableProcessors() platform threads.
+ * In both modes at most maxPending commands may be queued or running, the rest is rejected.
+ */
+class CommandExecutor {
+
+    enum Mode { VIRTUAL_THREADS, FIXED_POOL }
+
+    private static final Logger logger = Logger.getLogger(CommandExecutor.class.getName());
+
+    // a user's semaphore lives while any of their commands holds or waits for it, users is only changed inside compute
+    private static final class UserPermits {
+        final Semaphore permits;
+        int users = 0;
+
+        UserPermits(int limit) {
+            permits = new Semaphore(limit, true);
+        }
+    }
+
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final Semaphore globalPermits;
+    private final int perUserLimit;
+    private final ConcurrentHashMap<Long, UserPermits> userPermits = new ConcurrentHashMap<>();
+    private final int concurrency;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+    // for the "try again in N s" estimate
+    private final LongAdder completedCommands = new LongAdder();
+    private final LongAdder completedMillis = new LongAdder();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LatencyHistogram commandTime = Metrics.histogram("isdownbot_command_seconds",
+            "Commands from submission to completion, queueing included");
+
+    CommandExecutor(Mode mode, int globalLimit, int perUserLimit, int maxPending) {
+        this.mode = mode;
+        this.perUserLimit = perUserLimit;
+        this.maxPending = maxPending;
+        this.concurrency = (mode == Mode.VIRTUAL_THREADS) ? globalLimit : Runtime.getRuntime().availableProcessors();
+        this.globalPermits = new Semaphore(globalLimit, true);
+        this.executor = (mode == Mode.VIRTUAL_THREADS)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        Metrics.gauge("isdownbot_commands_pending", "Commands queued or running", pending::get);
+        Metrics.gauge("isdownbot_commands_running", "Commands running", running::get);
+        Metrics.gauge("isdownbot_command_users", "Users with a command running or waiting", userPermits::size);
+        Metrics.gauge("isdownbot_commands_concurrency", "Commands allowed to run at once", () -> concurrency);
+        logger.info("Running commands in " + mode + " mode");
+    }
+
+    static Mode parseMode(String mode) {
+        return "fixed".equalsIgnoreCase(mode) ? Mode.FIXED_POOL : Mode.VIRTUAL_THREADS;
+    }
+
+    // false if too many commands are pending already
+    boolean trySubmit(long chatId, Runnable command) {
+        int current;
+        do {
+            current = pending.get();
+            if (current >= maxPending)
+                return false;
+        } while (!pending.compareAndSet(current, current + 1));
+
+        long submitted = System.nanoTime();
+        Runnable counted = () -> {
+            running.incrementAndGet();
+            try {
+                command.run();
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+        Runnable tracked = () -> {
+            long start = System.nanoTime();
+            try {
+                if (mode == Mode.FIXED_POOL)
+                    counted.run(); // the pool size is the limit
+                else
+                    runLimited(chatId, counted);
+            } finally {
+                completedMillis.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                completedCommands.increment();
+                pending.decrementAndGet();
+                commandTime.recordSince(submitted);
+            }
+        };
+        try {
+            executor.execute(tracked);
+            return true;
+        } catch (RejectedExecutionException shuttingDown) {
+            pending.decrementAndGet();
+            return false;
+        }
+    }
+
+    int pending() {
+        return pending.get();
+    }
+
+    // rough time until a new command would start: the backlog drained at the current concurrency
+    long estimatedWaitMillis() {
+        long completed = completedCommands.sum();
+        long averageMillis = (completed == 0) ? 1000 : completedMillis.sum() / completed;
+        return averageMillis * pending.get() / Math.max(1, concurrency);
+    }
+
+    private void runLimited(long chatId, Runnable command) {
+        UserPermits user = userPermits.compute(chatId, (id, current) -> {
+            UserPermits joined = (current == null) ? new UserPermits(perUserLimit) : current;
+            joined.users++;
+            return joined;
+        });
+        Semaphore userLimit = user.permits;
+        try {
+            userLimit.acquire();
+            try {
+                globalPermits.acquire();
+                try {
+                    command.run();
+                } finally {
+                    globalPermits.release();
+                }
+            } finally {
+                userLimit.release();
+            }
+        } catch (InterruptedException interrupted) {
+            logger.warning("Command of user " + chatId + " interrupted while waiting to run");
+        } catch (RuntimeException commandFailed) {
+            logger.severe("Command of user " + chatId + " failed: " + commandFailed);
+        } finally {
+            // the last command of a user takes the semaphore with it, users come and go by the thousand
+            userPermits.computeIfPresent(chatId, (id, current) -> --current.users == 0 ? null : current);
+        }
+    }
+
+    void shutdown(long timeoutSeconds) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS))
+            logger.warning("Commands still running after " + timeoutSeconds + " s, closing anyway");
+    }
+}
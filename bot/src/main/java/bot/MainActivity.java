@@ -0,0 +1,111 @@
+package bot;
+
+import metrics.MetricsServer;
+import org.telegram.telegrambots.ApiContextInitializer;
+import org.telegram.telegrambots.TelegramBotsApi;
+import org.telegram.telegrambots.exceptions.TelegramApiException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import static cfg.Configuration.BOT_TOKEN;
+
+public class MainActivity {
+    // "polling" (default) or "webhook"
+    private static final String INGESTION_MODE = System.getProperty("isdownbot.ingestion", "polling");
+    private static final String WEBHOOK_BIND_ADDRESS = System.getProperty("isdownbot.webhookBindAddress", "0.0.0.0");
+    private static final int WEBHOOK_PORT = Integer.getInteger("isdownbot.webhookPort", 8443);
+    private static final String WEBHOOK_PATH = System.getProperty("isdownbot.webhookPath", "/telegram");
+    // public URL Telegram should push to, if unset the webhook is expected to be registered already
+    private static final String WEBHOOK_URL = System.getProperty("isdownbot.webhookUrl");
+    // required in webhook mode, Telegram sends it with every update and anything without it is refused
+    private static final String WEBHOOK_SECRET = System.getProperty("isdownbot.webhookSecret");
+    // Prometheus endpoint, off unless a port is given
+    private static final int METRICS_PORT = Integer.getInteger("isdownbot.metricsPort", 0);
+    // the endpoint has no authentication, loopback unless the scraper runs elsewhere
+    private static final String METRICS_BIND_ADDRESS = System.getProperty("isdownbot.metricsBindAddress", "127.0.0.1");
+
+    private static final Logger logger = Logger.getLogger(MainActivity.class.getName());
+
+    public static void main(String[] args) {
+        boolean webhook = "webhook".equalsIgnoreCase(INGESTION_MODE);
+        if (webhook && (WEBHOOK_SECRET == null || WEBHOOK_SECRET.isEmpty())) {
+            logger.severe("Webhook mode needs -Disdownbot.webhookSecret, refusing to accept unauthenticated updates");
+            System.exit(2);
+        }
+        ApiContextInitializer.init();
+        BotInstance bot = new BotInstance();
+        startMetrics();
+        if (webhook)
+            startWebhook(bot);
+        else
+            startLongPolling(bot);
+    }
+
+    private static void startMetrics() {
+        if (METRICS_PORT <= 0)
+            return;
+        try {
+            MetricsServer metricsServer = new MetricsServer(METRICS_BIND_ADDRESS, METRICS_PORT);
+            metricsServer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::stop, "metrics-shutdown"));
+        } catch (IOException bindFailed) {
+            logger.severe("Failed to start metrics server on port " + METRICS_PORT + ": " + bindFailed.getMessage());
+        }
+    }
+
+    private static void startLongPolling(BotInstance bot) {
+        TelegramBotsApi api = new TelegramBotsApi();
+        Runtime.getRuntime().addShutdownHook(new Thread(bot::shutdown, "bot-shutdown"));
+        try {
+            api.registerBot(bot);
+        } catch (TelegramApiException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // updates are pushed to the embedded server and routed exactly as polled ones would be
+    private static void startWebhook(BotInstance bot) {
+        WebhookServer server;
+        try {
+            server = new WebhookServer(WEBHOOK_BIND_ADDRESS, WEBHOOK_PORT, WEBHOOK_PATH, WEBHOOK_SECRET, bot::onUpdateReceived);
+        } catch (IOException bindFailed) {
+            logger.severe("Failed to start webhook server on port " + WEBHOOK_PORT + ": " + bindFailed.getMessage());
+            bot.shutdown();
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            bot.shutdown();
+        }, "bot-shutdown"));
+        server.start();
+        if (WEBHOOK_URL != null)
+            registerWebhook(WEBHOOK_URL, WEBHOOK_SECRET);
+    }
+
+    private static void registerWebhook(String url, String secret) {
+        String form = "url=" + URLEncoder.encode(url, StandardCharsets.UTF_8)
+                + "&secret_token=" + URLEncoder.encode(secret, StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder(URI.create("https://api.telegram.org/bot" + BOT_TOKEN + "/setWebhook"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200)
+                logger.info("Webhook registered at " + url);
+            else
+                logger.severe("Webhook registration failed: " + response.body());
+        } catch (IOException registrationFailed) {
+            logger.severe("Webhook registration failed: " + registrationFailed.getMessage());
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package bot;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import org.telegram.telegrambots.api.methods.BotApiMethod;
+import org.telegram.telegrambots.api.methods.send.SendMessage;
+import org.telegram.telegrambots.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.api.objects.Message;
+import org.telegram.telegrambots.exceptions.TelegramApiException;
+import org.telegram.telegrambots.exceptions.TelegramApiRequestException;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/*
+ * Outbound queue for everything the bot sends. Handlers enqueue and return immediately, one
+ * dispatcher thread releases messages at most one per chat per PER_CHAT_INTERVAL_MILLIS and
+ * GLOBAL_PER_SECOND overall (Telegram's documented limits), the HTTP calls run on virtual threads.
+ * 429 answers are retried after the retry_after Telegram asks for, network errors with backoff.
+ * Queued edits of the same message are merged, only the latest text is sent.
+ */
+class MessageDispatcher {
+    private static final long PER_CHAT_INTERVAL_MILLIS = 1000;
+    private static final int GLOBAL_PER_SECOND = 30;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long CLEANUP_INTERVAL_MILLIS = 60_000;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private static final Logger logger = Logger.getLogger(MessageDispatcher.class.getName());
+
+    interface Sender {
+        Serializable execute(BotApiMethod<? extends Serializable> method) throws TelegramApiException;
+    }
+
+    private final Sender sender;
+    private final ConcurrentHashMap<Long, ChatQueue> chats = new ConcurrentHashMap<>();
+    private final DelayQueue<ReadyChat> readyChats = new DelayQueue<>();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Thread dispatcherThread;
+    private volatile boolean closing = false;
+
+    private final LatencyHistogram sendTime = Metrics.histogram("isdownbot_telegram_call_seconds",
+            "Telegram API calls made by the dispatcher", "method", "sendMessage");
+    private final LatencyHistogram editTime = Metrics.histogram("isdownbot_telegram_call_seconds",
+            "Telegram API calls made by the dispatcher", "method", "editMessageText");
+    private final Counter throttled = Metrics.counter("isdownbot_telegram_retries_total",
+            "Telegram API calls retried", "reason", "throttled");
+    private final Counter failedAttempts = Metrics.counter("isdownbot_telegram_retries_total",
+            "Telegram API calls retried", "reason", "error");
+    private final Counter givenUp = Metrics.counter("isdownbot_telegram_failed_total",
+            "Messages that could not be sent at all");
+
+    MessageDispatcher(Sender sender) {
+        this.sender = sender;
+        Metrics.gauge("isdownbot_outbound_queued", "Messages queued or being sent", queued::get);
+        dispatcherThread = new Thread(this::dispatchLoop, "message-dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    CompletableFuture<Message> send(long chatId, String text) {
+        SendOutgoing outgoing = new SendOutgoing(chatId, text);
+        enqueue(outgoing);
+        return outgoing.result;
+    }
+
+    // an edit still waiting in the queue for the same message is overwritten instead of sending both
+    CompletableFuture<Void> edit(long chatId, int messageId, String text) {
+        while (true) {
+            ChatQueue chat = chats.computeIfAbsent(chatId, ChatQueue::new);
+            synchronized (chat) {
+                if (chat.retired)
+                    continue;
+                for (Outgoing waiting : chat.messages) {
+                    if (waiting instanceof EditOutgoing && ((EditOutgoing) waiting).messageId == messageId) {
+                        ((EditOutgoing) waiting).text = text;
+                        return ((EditOutgoing) waiting).result;
+                    }
+                }
+                EditOutgoing outgoing = new EditOutgoing(chatId, messageId, text);
+                add(chat, outgoing);
+                return outgoing.result;
+            }
+        }
+    }
+
+    // messages queued or being sent
+    int queued() {
+        return queued.get();
+    }
+
+    // sends what is queued, giving up after timeoutSeconds
+    void shutdown(long timeoutSeconds) {
+        closing = true;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        try {
+            while (queued.get() > 0 && System.nanoTime() < deadline)
+                Thread.sleep(50);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (queued.get() > 0)
+            logger.warning(queued.get() + " messages not sent before shutdown");
+        dispatcherThread.interrupt();
+        senders.shutdown();
+    }
+
+    private void enqueue(Outgoing outgoing) {
+        while (true) {
+            ChatQueue chat = chats.computeIfAbsent(outgoing.chatId, ChatQueue::new);
+            synchronized (chat) {
+                if (chat.retired)
+                    continue;
+                add(chat, outgoing);
+                return;
+            }
+        }
+    }
+
+    // caller holds the chat's lock
+    private void add(ChatQueue chat, Outgoing outgoing) {
+        queued.incrementAndGet();
+        if (closing) {
+            outgoing.fail(new IllegalStateException("Dispatcher is shutting down"));
+            return;
+        }
+        chat.messages.addLast(outgoing);
+        if (!chat.active) {
+            chat.active = true;
+            readyChats.put(new ReadyChat(chat, Math.max(System.currentTimeMillis(), chat.nextAllowedMillis)));
+        }
+    }
+
+    private void dispatchLoop() {
+        long globalIntervalNanos = TimeUnit.SECONDS.toNanos(1) / GLOBAL_PER_SECOND;
+        long nextSlotNanos = System.nanoTime();
+        long lastCleanup = System.currentTimeMillis();
+        try {
+            while (true) {
+                ReadyChat ready = readyChats.poll(CLEANUP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                long now = System.currentTimeMillis();
+                if (now - lastCleanup >= CLEANUP_INTERVAL_MILLIS) {
+                    retireIdleChats(now);
+                    lastCleanup = now;
+                }
+                if (ready == null)
+                    continue;
+
+                long waitNanos = nextSlotNanos - System.nanoTime();
+                if (waitNanos > 0)
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                nextSlotNanos = Math.max(nextSlotNanos, System.nanoTime()) + globalIntervalNanos;
+
+                ChatQueue chat = ready.chat;
+                Outgoing outgoing;
+                synchronized (chat) {
+                    outgoing = chat.messages.pollFirst();
+                    if (outgoing == null) {
+                        chat.active = false;
+                        continue;
+                    }
+                }
+                // the chat stays active (not rescheduled) until this message is answered
+                BotApiMethod<? extends Serializable> method = outgoing.method();
+                senders.execute(() -> deliver(chat, outgoing, method));
+            }
+        } catch (InterruptedException shutdown) {
+            logger.fine("Message dispatcher stopped");
+        }
+    }
+
+    private void deliver(ChatQueue chat, Outgoing outgoing, BotApiMethod<? extends Serializable> method) {
+        long delayMillis = PER_CHAT_INTERVAL_MILLIS;
+        boolean retry = false;
+        long start = System.nanoTime();
+        try {
+            Serializable response = sender.execute(method);
+            (outgoing instanceof EditOutgoing ? editTime : sendTime).recordSince(start);
+            outgoing.complete(response);
+        } catch (TelegramApiRequestException rejected) {
+            Integer errorCode = rejected.getErrorCode();
+            if (errorCode != null && errorCode == TOO_MANY_REQUESTS) {
+                Integer retryAfter = rejected.getParameters() == null ? null : rejected.getParameters().getRetryAfter();
+                delayMillis = (retryAfter != null) ? TimeUnit.SECONDS.toMillis(retryAfter) : backoffMillis(outgoing.attempts);
+                retry = true;
+                throttled.increment();
+                logger.warning("Throttled by Telegram in chat " + chat.chatId + ", retrying in " + delayMillis + " ms");
+            } else if (outgoing.isUnchangedEdit(rejected)) {
+                outgoing.complete(null);
+            } else {
+                // the request itself is wrong, sending it again won't help
+                giveUp(outgoing, rejected);
+            }
+        } catch (TelegramApiException | RuntimeException sendFailed) {
+            delayMillis = backoffMillis(outgoing.attempts);
+            retry = true;
+            failedAttempts.increment();
+            logger.warning("Sending to chat " + chat.chatId + " failed: \"" + sendFailed.getMessage() + "\", retrying in "
+                    + delayMillis + " ms");
+        }
+
+        if (retry && ++outgoing.attempts >= MAX_ATTEMPTS) {
+            giveUp(outgoing, new TelegramApiException("No success after " + MAX_ATTEMPTS + " attempts"));
+            retry = false;
+        }
+        synchronized (chat) {
+            if (retry)
+                chat.messages.addFirst(outgoing);
+            chat.nextAllowedMillis = System.currentTimeMillis() + delayMillis;
+            if (chat.messages.isEmpty())
+                chat.active = false;
+            else
+                readyChats.put(new ReadyChat(chat, chat.nextAllowedMillis));
+        }
+    }
+
+    private void giveUp(Outgoing outgoing, Exception cause) {
+        givenUp.increment();
+        logger.severe("Failed to send message to " + outgoing.chatId + ": \"" + cause.getMessage() + "\"");
+        outgoing.fail(cause);
+    }
+
+    private static long backoffMillis(int attempts) {
+        return BASE_BACKOFF_MILLIS << Math.min(attempts, 6);
+    }
+
+    // chats with nothing queued and the per-chat pause over carry no state worth keeping
+    private void retireIdleChats(long now) {
+        chats.values().removeIf(chat -> {
+            synchronized (chat) {
+                if (chat.active || now < chat.nextAllowedMillis)
+                    return false;
+                chat.retired = true;
+                return true;
+            }
+        });
+    }
+
+    private static class ChatQueue {
+        final long chatId;
+        final ArrayDeque<Outgoing> messages = new ArrayDeque<>();
+        long nextAllowedMillis = 0;
+        boolean active = false;   // waiting in readyChats or a message is being sent
+        boolean retired = false;  // removed from chats, a new queue has to be created
+
+        ChatQueue(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    private static class ReadyChat implements Delayed {
+        final ChatQueue chat;
+        final long readyAtMillis;
+
+        ReadyChat(ChatQueue chat, long readyAtMillis) {
+            this.chat = chat;
+            this.readyAtMillis = readyAtMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(readyAtMillis, ((ReadyChat) other).readyAtMillis);
+        }
+    }
+
+    private abstract class Outgoing {
+        final long chatId;
+        int attempts = 0;
+
+        Outgoing(long chatId) {
+            this.chatId = chatId;
+        }
+
+        abstract BotApiMethod<? extends Serializable> method();
+
+        abstract void complete(Serializable response);
+
+        abstract void fail(Exception cause);
+
+        boolean isUnchangedEdit(TelegramApiRequestException rejected) {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + " to " + chatId;
+        }
+    }
+
+    private class SendOutgoing extends Outgoing {
+        final String text;
+        final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        SendOutgoing(long chatId, String text) {
+            super(chatId);
+            this.text = text;
+        }
+
+        @Override
+        BotApiMethod<? extends Serializable> method() {
+            return new SendMessage(chatId, text);
+        }
+
+        @Override
+        void complete(Serializable response) {
+            queued.decrementAndGet();
+            result.complete((Message) response);
+        }
+
+        @Override
+        void fail(Exception cause) {
+            queued.decrementAndGet();
+            result.completeExceptionally(cause);
+        }
+    }
+
+    private class EditOutgoing extends Outgoing {
+        final int messageId;
+        String text; // replaced by newer edits while queued, guarded by the chat's lock
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        EditOutgoing(long chatId, int messageId, String text) {
+            super(chatId);
+            this.messageId = messageId;
+            this.text = text;
+        }
+
+        @Override
+        BotApiMethod<? extends Serializable> method() {
+            return new EditMessageText().setChatId(chatId).setMessageId(messageId).setText(text);
+        }
+
+        @Override
+        void complete(Serializable response) {
+            queued.decrementAndGet();
+            result.complete(null);
+        }
+
+        @Override
+        void fail(Exception cause) {
+            queued.decrementAndGet();
+            result.completeExceptionally(cause);
+        }
+
+        // Telegram refuses edits that change nothing, the message already shows the text
+        @Override
+        boolean isUnchangedEdit(TelegramApiRequestException rejected) {
+            String response = rejected.getApiResponse();
+            return response != null && response.contains("message is not modified");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package bot;
+
+import org.telegram.telegrambots.api.objects.Message;
+
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * One reply that is sent on the first update and edited in place afterwards.
+ * Edits always carry the latest text, so updates arriving while the first message is still
+ * being sent collapse into one edit once its id is known. If sending fails (the dispatcher gave
+ * up), the next update sends the latest text as a new message instead of editing nothing.
+ */
+class ProgressiveReply {
+    private final MessageDispatcher dispatcher;
+    private final long chatId;
+    private CompletableFuture<Message> message = null;
+    private String latestText = null;
+    private String sentText = null;  // last text handed to the dispatcher
+
+    ProgressiveReply(MessageDispatcher dispatcher, long chatId) {
+        this.dispatcher = dispatcher;
+        this.chatId = chatId;
+    }
+
+    synchronized void update(String text) {
+        latestText = text;
+        if (message == null) {
+            sentText = text;
+            message = dispatcher.send(chatId, text);
+            return;
+        }
+        CompletableFuture<Message> sending = message;
+        sending.whenComplete((sent, failure) -> {
+            if (failure == null)
+                editToLatest(sent);
+            else
+                resendLatest(sending);
+        });
+    }
+
+    // once per failed message, updates queued behind it go to the new one
+    private synchronized void resendLatest(CompletableFuture<Message> failed) {
+        if (message != failed)
+            return;
+        sentText = latestText;
+        message = dispatcher.send(chatId, latestText);
+    }
+
+    private void editToLatest(Message sent) {
+        String text;
+        synchronized (this) {
+            if (latestText.equals(sentText))
+                return;
+            text = sentText = latestText;
+        }
+        dispatcher.edit(chatId, sent.getMessageId(), text);
+    }
+}
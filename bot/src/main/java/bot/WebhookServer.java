@@ -0,0 +1,101 @@
+package bot;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.telegram.telegrambots.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/*
+ * Embedded HTTP endpoint receiving Telegram updates pushed by a webhook.
+ * Every POST to the path carrying Telegram's secret token header is parsed into an Update and handed
+ * to the consumer (the bot's router), requests are served on virtual threads so a slow consumer never
+ * blocks the accept loop. There is no unauthenticated mode: without the secret anyone who finds the
+ * port could forge commands for any chat.
+ */
+class WebhookServer {
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    private static final int STOP_DELAY_SECONDS = 1;
+
+    private static final Logger logger = Logger.getLogger(WebhookServer.class.getName());
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final Consumer<Update> consumer;
+    private final byte[] secretToken;
+
+    // requests without the matching secretToken header are refused; bindAddress e.g. "0.0.0.0" or "127.0.0.1"
+    WebhookServer(String bindAddress, int port, String path, String secretToken, Consumer<Update> consumer)
+            throws IOException {
+        if (secretToken == null || secretToken.isEmpty())
+            throw new IllegalArgumentException("A webhook secret token is required");
+        this.consumer = consumer;
+        this.secretToken = secretToken.getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext(path, this::handle);
+        server.setExecutor(executor);
+    }
+
+    void start() {
+        server.start();
+        logger.info("Webhook server listening on " + server.getAddress());
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(STOP_DELAY_SECONDS);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!hasSecret(exchange)) {
+                logger.warning("Refused webhook call without a valid secret from " + exchange.getRemoteAddress());
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+            Update update;
+            try {
+                update = mapper.readValue(body, Update.class);
+            } catch (IOException parseFailed) {
+                logger.warning("Malformed update received: " + parseFailed.getMessage());
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            // Telegram only needs to know the update arrived, commands run asynchronously anyway
+            exchange.sendResponseHeaders(200, -1);
+            try {
+                consumer.accept(update);
+            } catch (RuntimeException dispatchFailed) {
+                logger.severe("Update dispatch failed: " + dispatchFailed);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // constant time, so the token can't be guessed byte by byte from response times
+    private boolean hasSecret(HttpExchange exchange) {
+        String given = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+        return given != null && MessageDigest.isEqual(secretToken, given.getBytes(StandardCharsets.UTF_8));
+    }
+}
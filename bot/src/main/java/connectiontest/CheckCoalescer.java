@@ -0,0 +1,54 @@
+package connectiontest;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Collection;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/*
+ * Shares the network part of identical checks between users: concurrent checks of the same
+ * (host, timeout bucket, proxy set) run one DNS lookup and probe, and the outcome is reused
+ * for a few seconds (fullCheck outcomes with their consensus for longer, they cost a whole
+ * probe matrix). Per-user bookkeeping (access history, counters) stays in DownChecker.
+ */
+public class CheckCoalescer {
+    private static final int TIMEOUT_BUCKET_MILLIS = 500;
+
+    private final SingleFlight<String, QuickCheckOutcome> quickChecks;
+    private final SingleFlight<String, FullCheckOutcome> fullChecks;
+
+    public CheckCoalescer(long resultTtlMillis) {
+        this(resultTtlMillis, resultTtlMillis);
+    }
+
+    public CheckCoalescer(long resultTtlMillis, long fullCheckTtlMillis) {
+        quickChecks = new SingleFlight<>(resultTtlMillis);
+        fullChecks = new SingleFlight<>(fullCheckTtlMillis);
+    }
+
+    QuickCheckOutcome quickCheck(String hostName, int timeOutMs, Collection<Proxy> proxies,
+                                 Supplier<QuickCheckOutcome> check) {
+        return quickChecks.get(key(hostName, timeOutMs, proxies), check);
+    }
+
+    FullCheckOutcome fullCheck(String hostName, int timeOutMs, Collection<Proxy> proxies,
+                               Supplier<FullCheckOutcome> check) {
+        return fullChecks.get(key(hostName, timeOutMs, proxies), check);
+    }
+
+    // "host:port", the host as given and never resolved
+    static String addressOf(Proxy proxy) {
+        InetSocketAddress address = (InetSocketAddress) proxy.address();
+        return address.getHostString() + ':' + address.getPort();
+    }
+
+    // the proxies as a set, checks listing them in another order share the outcome
+    private static String key(String hostName, int timeOutMs, Collection<Proxy> proxies) {
+        String proxySet = proxies.stream()
+                .map(CheckCoalescer::addressOf)
+                .sorted()
+                .collect(Collectors.joining(","));
+        return hostName + '|' + (timeOutMs / TIMEOUT_BUCKET_MILLIS) + '|' + proxySet;
+    }
+}
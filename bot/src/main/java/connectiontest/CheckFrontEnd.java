@@ -0,0 +1,107 @@
+package connectiontest;
+
+import database.DBHandler;
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/*
+ * The checking side of the bot in split mode: instead of running DownChecker itself it does the
+ * database part of the check (recording the access, reading the user's timeout and proxies),
+ * publishes a job carrying the results to the worker the host hashes to and waits for the report.
+ * All checks of a host land on the same worker, so that worker's CheckCoalescer has its recent
+ * results; adding a worker moves only the hosts that now hash to it. The DNS cache and circuit
+ * breaker are per process, shared by workers running in the same JVM and only warmed by their own
+ * hosts for workers running as separate processes.
+ */
+public class CheckFrontEnd {
+    private static final int VIRTUAL_NODES = 128;
+
+    private static final Logger logger = Logger.getLogger(CheckFrontEnd.class.getName());
+
+    private static final class PendingJob {
+        final CompletableFuture<String> report = new CompletableFuture<>();
+        final Consumer<String> progress; // null for quick checks
+        final String worker;
+
+        PendingJob(Consumer<String> progress, String worker) {
+            this.progress = progress;
+            this.worker = worker;
+        }
+    }
+
+    private final CheckQueue queue;
+    private final DBHandler dbConnection;
+    private final ConsistentHashRing ring;
+    private final long jobTimeoutMillis;
+    private final AtomicLong lastJobId = new AtomicLong();
+    private final ConcurrentHashMap<Long, PendingJob> pending = new ConcurrentHashMap<>();
+    private final Counter published = Metrics.counter("isdownbot_check_jobs_total", "Check jobs by outcome",
+            "outcome", "published");
+    private final Counter timedOut = Metrics.counter("isdownbot_check_jobs_total", "Check jobs by outcome",
+            "outcome", "timed_out");
+
+    // jobTimeoutMillis bounds the wait for a worker that died or lost the job
+    public CheckFrontEnd(CheckQueue queue, DBHandler dbConnection, long jobTimeoutMillis) {
+        this.queue = queue;
+        this.dbConnection = dbConnection;
+        this.ring = new ConsistentHashRing(queue.workers(), VIRTUAL_NODES);
+        this.jobTimeoutMillis = jobTimeoutMillis;
+        queue.onReply(this::onReply);
+        Metrics.gauge("isdownbot_check_jobs_pending", "Check jobs waiting for their worker", pending::size);
+    }
+
+    // same reply as DownChecker.quickCheck, IllegalArgumentException for urls it would reject
+    public String quickCheck(String url, String httpMethod, long userId) throws IllegalArgumentException {
+        return run(CheckJob.Kind.QUICK, url, httpMethod, userId, null);
+    }
+
+    // same reply as DownChecker.fullCheck, progress gets the report so far as probes complete
+    public String fullCheck(String url, String httpMethod, long userId, Consumer<String> progress)
+                                                                                throws IllegalArgumentException {
+        return run(CheckJob.Kind.FULL, url, httpMethod, userId, progress);
+    }
+
+    private String run(CheckJob.Kind kind, String url, String httpMethod, long userId, Consumer<String> progress) {
+        // bad urls are answered here, a worker would only send the same message back
+        CheckJob job = DownChecker.prepareJob(dbConnection, lastJobId.incrementAndGet(), kind, url, httpMethod, userId);
+        String worker = ring.nodeFor(IsDownCheckHelper.parseUrl(url));
+        PendingJob waiting = new PendingJob(progress, worker);
+        pending.put(job.getId(), waiting);
+        try {
+            queue.publish(worker, job);
+            published.increment();
+            return waiting.report.get(jobTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException noReply) {
+            timedOut.increment();
+            logger.warning("No reply from " + worker + " to job " + job.getId() + " (" + url + ") in " + jobTimeoutMillis + " ms");
+            return "Check timed out, try again later";
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return "Check interrupted, try again later";
+        } catch (ExecutionException willNotHappen) {
+            return "Check failed, try again later";
+        } finally {
+            pending.remove(job.getId());
+        }
+    }
+
+    // on whatever thread the queue delivers replies, late replies of abandoned jobs are dropped
+    private void onReply(CheckReply reply) {
+        PendingJob waiting = pending.get(reply.getJobId());
+        if (waiting == null)
+            return;
+        if (reply.isLast())
+            waiting.report.complete(reply.getText());
+        else if (waiting.progress != null)
+            waiting.progress.accept(reply.getText());
+    }
+}
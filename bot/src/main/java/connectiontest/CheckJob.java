@@ -0,0 +1,83 @@
+package connectiontest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * One /check or /fullCheck handed from the front end to a probe worker, plain data so any CheckQueue
+ * can carry it. Whatever the check needs from the database (timeout, proxies and their countries,
+ * how many users checked the host) is looked up by the front end and travels in the job, so a
+ * worker never touches the database.
+ */
+public final class CheckJob {
+    public enum Kind { QUICK, FULL }
+
+    private final long id;
+    private final Kind kind;
+    private final String url;
+    private final String httpMethod;
+    private final long userId;
+    private final int timeOutMs;
+    private final List<String> proxies;
+    private final List<String> proxyCountries;
+    private final long usersChecked;
+
+    public CheckJob(long id, Kind kind, String url, String httpMethod, long userId, int timeOutMs,
+                    List<String> proxies, List<String> proxyCountries, long usersChecked) {
+        if (proxies.size() != proxyCountries.size())
+            throw new IllegalArgumentException("Got " + proxies.size() + " proxies but " + proxyCountries.size() + " countries");
+        this.id = id;
+        this.kind = kind;
+        this.url = url;
+        this.httpMethod = httpMethod;
+        this.userId = userId;
+        this.timeOutMs = timeOutMs;
+        this.proxies = Collections.unmodifiableList(new ArrayList<>(proxies));
+        this.proxyCountries = Collections.unmodifiableList(new ArrayList<>(proxyCountries));
+        this.usersChecked = usersChecked;
+    }
+
+    // unique per front end, replies carry it back
+    public long getId() {
+        return id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // as the user typed it, the worker parses it again
+    public String getUrl() {
+        return url;
+    }
+
+    // "HEAD" or "GET" for http:// and https:// urls, as the user asked
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    // the user's probe timeout
+    public int getTimeOutMs() {
+        return timeOutMs;
+    }
+
+    // the user's SOCKS proxies as "host:port", in the order the user added them; empty for quick checks
+    public List<String> getProxies() {
+        return proxies;
+    }
+
+    // ip2nation country of each proxy, null where unknown
+    public List<String> getProxyCountries() {
+        return proxyCountries;
+    }
+
+    // distinct users who checked the host within the window the report shows, this check included
+    public long getUsersChecked() {
+        return usersChecked;
+    }
+}
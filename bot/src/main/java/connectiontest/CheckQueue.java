@@ -0,0 +1,29 @@
+package connectiontest;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * Carries check jobs from the front end (the process talking to Telegram) to named probe workers
+ * and their replies back. The front end picks the worker, so a queue only has to keep one inbox
+ * per worker; LoopbackCheckQueue does that in memory, one backed by a message broker lets the
+ * workers run as separate processes (ProbeWorker.main). Jobs and replies are plain data for that.
+ */
+public interface CheckQueue {
+    // the workers jobs can be published to
+    List<String> workers();
+
+    void publish(String worker, CheckJob job);
+
+    // blocks until the worker has a job, null once the queue is closed
+    CheckJob take(String worker) throws InterruptedException;
+
+    // called by workers, delivered to the handler given to onReply
+    void reply(CheckReply reply);
+
+    // the front end's handler, set before the first job is published
+    void onReply(Consumer<CheckReply> handler);
+
+    // wakes up waiting workers, jobs not taken yet are dropped
+    void close();
+}
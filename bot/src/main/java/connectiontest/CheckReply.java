@@ -0,0 +1,36 @@
+package connectiontest;
+
+// What a probe worker sends back for a CheckJob: any number of progress reports, then the final one
+public final class CheckReply {
+    private final long jobId;
+    private final boolean last;
+    private final String text;
+
+    public CheckReply(long jobId, boolean last, String text) {
+        this.jobId = jobId;
+        this.last = last;
+        this.text = text;
+    }
+
+    static CheckReply progress(long jobId, String report) {
+        return new CheckReply(jobId, false, report);
+    }
+
+    static CheckReply done(long jobId, String report) {
+        return new CheckReply(jobId, true, report);
+    }
+
+    public long getJobId() {
+        return jobId;
+    }
+
+    // false for fullCheck reports of probes still running
+    public boolean isLast() {
+        return last;
+    }
+
+    // the message for the user
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,135 @@
+package connectiontest;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * Per-target circuit breaker for user checks: after failureThreshold failed probes in a row the
+ * circuit opens and further probes of the target are answered with the last failure (marked cached,
+ * with its age) instead of waiting out another timeout. Once the cool-down is over a single probe is
+ * let through (half-open): success closes the circuit, failure opens it again for twice as long,
+ * up to maxCoolDownMillis.
+ * Timeouts only prove the target is down for timeouts up to the one that was waited out, so a
+ * check with a longer timeout still gets a real probe.
+ */
+class CircuitBreaker {
+    private static final long SWEEP_INTERVAL_MILLIS = 60_000;
+
+    private final class Circuit {
+        private int consecutiveFailures = 0;
+        private int openings = 0;
+        private long openUntil = 0;
+        private boolean halfOpenProbeRunning = false;
+        private ProbeResult lastFailure;
+        private long lastFailureAt;
+        private int provenForTimeOutMs = 0; // longest timeout the failures hold for
+
+        // null if the caller should probe, the cached failure otherwise
+        private synchronized ProbeResult admit(long now, int timeOutMs) {
+            if (consecutiveFailures < failureThreshold || timeOutMs > provenForTimeOutMs)
+                return null;
+            if (now < openUntil || halfOpenProbeRunning) {
+                shortCircuited.increment();
+                return lastFailure.asCached(now - lastFailureAt);
+            }
+            halfOpenProbeRunning = true;
+            halfOpenProbes.increment();
+            return null;
+        }
+
+        private synchronized void onFailure(long now, int timeOutMs, ProbeResult failure) {
+            consecutiveFailures++;
+            lastFailure = failure;
+            lastFailureAt = now;
+            int provenFor = ProbeEngine.TIMED_OUT.equals(failure.getError()) ? timeOutMs : Integer.MAX_VALUE;
+            provenForTimeOutMs = Math.max(provenForTimeOutMs, provenFor);
+            if (consecutiveFailures < failureThreshold)
+                return;
+            if (halfOpenProbeRunning || openings == 0) {
+                // still down, every reopening waits twice as long
+                halfOpenProbeRunning = false;
+                long coolDown = Math.min(maxCoolDownMillis, coolDownMillis << Math.min(openings, 20));
+                openings++;
+                openUntil = now + coolDown;
+            }
+        }
+
+        private synchronized void onProbeLost() {
+            halfOpenProbeRunning = false;
+        }
+
+        private synchronized boolean isOpen(long now) {
+            return consecutiveFailures >= failureThreshold && now < openUntil;
+        }
+
+        // nothing to remember once it is long closed to probing again
+        private synchronized boolean isStale(long now) {
+            return now - lastFailureAt > maxCoolDownMillis && !halfOpenProbeRunning;
+        }
+    }
+
+    private final int failureThreshold;
+    private final long coolDownMillis;
+    private final long maxCoolDownMillis;
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+    private final Counter shortCircuited = Metrics.counter("isdownbot_circuit_breaker_total",
+            "Probes through the circuit breaker by what happened", "result", "short_circuited");
+    private final Counter halfOpenProbes = Metrics.counter("isdownbot_circuit_breaker_total",
+            "Probes through the circuit breaker by what happened", "result", "half_open_probe");
+
+    CircuitBreaker(int failureThreshold, long coolDownMillis, long maxCoolDownMillis) {
+        this.failureThreshold = failureThreshold;
+        this.coolDownMillis = coolDownMillis;
+        this.maxCoolDownMillis = maxCoolDownMillis;
+    }
+
+    // key identifies the target (probe, address, port, proxy)
+    CompletableFuture<ProbeResult> probe(String key, int timeOutMs, Supplier<CompletableFuture<ProbeResult>> probe) {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        Circuit circuit = circuits.get(key);
+        if (circuit != null) {
+            ProbeResult cached = circuit.admit(now, timeOutMs);
+            if (cached != null)
+                return CompletableFuture.completedFuture(cached);
+        }
+        return probe.get().whenComplete((result, failure) -> record(key, timeOutMs, result));
+    }
+
+    // circuits refusing probes right now
+    int openCircuits() {
+        long now = System.currentTimeMillis();
+        int open = 0;
+        for (Circuit circuit : circuits.values()) {
+            if (circuit.isOpen(now))
+                open++;
+        }
+        return open;
+    }
+
+    private void record(String key, int timeOutMs, ProbeResult result) {
+        if (result == null) {
+            // the probe itself failed, let the next caller try again
+            Circuit circuit = circuits.get(key);
+            if (circuit != null)
+                circuit.onProbeLost();
+        } else if (result.isAvailable()) {
+            circuits.remove(key);
+        } else {
+            circuits.computeIfAbsent(key, k -> new Circuit()).onFailure(System.currentTimeMillis(), timeOutMs, result);
+        }
+    }
+
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MILLIS || !lastSweep.compareAndSet(last, now))
+            return;
+        circuits.values().removeIf(circuit -> circuit.isStale(now));
+    }
+}
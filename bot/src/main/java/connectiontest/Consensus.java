@@ -0,0 +1,145 @@
+package connectiontest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * "Down for everyone or just me" out of a fullCheck matrix. Every column (direct, then each proxy)
+ * is a vantage point: up if any address answered through it, down if it got answers and all were
+ * failures, silent if it got none (skipped or no answer). Vantage points are grouped by region,
+ * the country of the proxy as ip2nation has it; the direct one is a region of its own.
+ * Confidence is the lower bound of the 95% Wilson interval of the agreeing share, so one vantage
+ * point agreeing with itself is worth about 20% and five about 57%.
+ */
+final class Consensus {
+    static final String DIRECT = "direct";
+
+    enum Verdict { UP, DOWN, PARTIAL, UNKNOWN }
+
+    private static final double Z_95 = 1.96;
+
+    private static final class Region {
+        final String name;
+        int up = 0;
+        int down = 0;
+        int silent = 0;
+        final List<Long> latencies = new ArrayList<>();
+
+        Region(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Verdict verdict;
+    private final int up;
+    private final int answered;
+    private final double confidence;
+    private final List<Region> regions;
+
+    private Consensus(Verdict verdict, int up, int answered, double confidence, List<Region> regions) {
+        this.verdict = verdict;
+        this.up = up;
+        this.answered = answered;
+        this.confidence = confidence;
+        this.regions = regions;
+    }
+
+    // results[address][vantage] with null where nothing came back, vantageRegions has one entry per column
+    static Consensus of(ProbeResult[][] results, List<String> vantageRegions) {
+        Map<String, Region> regions = new LinkedHashMap<>();
+        int up = 0, down = 0;
+        for (int j = 0; j < vantageRegions.size(); j++) {
+            Region region = regions.computeIfAbsent(vantageRegions.get(j), Region::new);
+            long fastest = -1;
+            boolean failed = false;
+            for (ProbeResult[] row : results) {
+                ProbeResult result = row[j];
+                if (result == null)
+                    continue;
+                if (!result.isAvailable())
+                    failed = true;
+                else if (fastest == -1 || result.getLatencyMillis() < fastest)
+                    fastest = result.getLatencyMillis();
+            }
+            if (fastest != -1) {
+                region.up++;
+                region.latencies.add(fastest);
+                up++;
+            } else if (failed) {
+                region.down++;
+                down++;
+            } else {
+                region.silent++;
+            }
+        }
+        for (Region region : regions.values())
+            region.latencies.sort(null);
+
+        int answered = up + down;
+        Verdict verdict = (answered == 0) ? Verdict.UNKNOWN
+                : (down == 0) ? Verdict.UP
+                : (up == 0) ? Verdict.DOWN
+                : Verdict.PARTIAL;
+        return new Consensus(verdict, up, answered, wilsonLowerBound(Math.max(up, down), answered),
+                             new ArrayList<>(regions.values()));
+    }
+
+    /*
+     * Consensus: UP from 2 of 3 vantage points
+     * direct: down
+     * Germany: 2/2 up, p50 31 ms, p90 48 ms
+     */
+    String describe() {
+        StringBuilder description = new StringBuilder("Consensus: ");
+        switch (verdict) {
+            case UP:
+                description.append("UP for everyone");
+                break;
+            case DOWN:
+                description.append("DOWN for everyone");
+                break;
+            case PARTIAL:
+                description.append("UP from ").append(up).append(" of ").append(answered).append(" vantage points");
+                break;
+            default:
+                description.append("UNKNOWN, no vantage point got an answer");
+                break;
+        }
+        if (verdict == Verdict.UP || verdict == Verdict.DOWN)
+            description.append(", ").append(answered).append(answered == 1 ? " vantage point" : " vantage points")
+                    .append(" (confidence ").append(Math.round(confidence * 100)).append("%)");
+        for (Region region : regions) {
+            description.append('\n').append(region.name).append(": ");
+            int regionAnswered = region.up + region.down;
+            if (regionAnswered == 0) {
+                description.append("no answer");
+                continue;
+            }
+            description.append(region.up).append('/').append(regionAnswered).append(" up");
+            if (!region.latencies.isEmpty())
+                description.append(", p50 ").append(percentile(region.latencies, 0.5)).append(" ms, p90 ")
+                        .append(percentile(region.latencies, 0.9)).append(" ms");
+            if (region.silent > 0)
+                description.append(", ").append(region.silent).append(" without answer");
+        }
+        return description.toString();
+    }
+
+    // nearest rank of a sorted, non-empty list
+    private static long percentile(List<Long> sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    private static double wilsonLowerBound(int agreeing, int total) {
+        if (total == 0)
+            return 0;
+        double share = (double) agreeing / total;
+        double z2 = Z_95 * Z_95;
+        double centre = share + z2 / (2 * total);
+        double spread = Z_95 * Math.sqrt(share * (1 - share) / total + z2 / (4.0 * total * total));
+        return (centre - spread) / (1 + z2 / total);
+    }
+}
@@ -0,0 +1,61 @@
+package connectiontest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Maps keys (host names) to nodes (workers) so that a key keeps its node while nodes come and go:
+ * adding or removing one of N nodes moves about 1/N of the keys. Every node sits on the ring
+ * virtualNodes times to even out the share each one gets. The hash does not depend on the JVM,
+ * front ends in different processes agree on where a host goes.
+ */
+final class ConsistentHashRing {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final int virtualNodes;
+
+    ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+        this.virtualNodes = virtualNodes;
+        for (String node : nodes)
+            add(node);
+    }
+
+    synchronized void add(String node) {
+        for (int i = 0; i < virtualNodes; i++)
+            ring.put(hash(node + '#' + i), node);
+    }
+
+    synchronized void remove(String node) {
+        for (int i = 0; i < virtualNodes; i++)
+            ring.remove(hash(node + '#' + i), node);
+    }
+
+    // the first node clockwise from the key, null if the ring is empty
+    synchronized String nodeFor(String key) {
+        if (ring.isEmpty())
+            return null;
+        Map.Entry<Long, String> owner = ring.ceilingEntry(hash(key));
+        return (owner != null) ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    // 64 bit FNV-1a over UTF-8, finished with the MurmurHash3 mixer since FNV spreads short keys poorly
+    static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
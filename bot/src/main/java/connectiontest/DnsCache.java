@@ -0,0 +1,161 @@
+package connectiontest;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/*
+ * In-process DNS cache: honours record TTLs, caches NXDOMAIN answers, evicts least recently used
+ * names when full and lets concurrent lookups of one name share a single in-flight resolution.
+ */
+class DnsCache {
+
+    interface Resolver {
+        Resolution resolve(String hostName) throws UnknownHostException;
+    }
+
+    static final class Resolution {
+        private final InetAddress[] addresses; // null for a negative (NXDOMAIN) answer
+        private final long ttlMillis;
+
+        private Resolution(InetAddress[] addresses, long ttlMillis) {
+            this.addresses = addresses;
+            this.ttlMillis = ttlMillis;
+        }
+
+        static Resolution of(InetAddress[] addresses, long ttlMillis) {
+            return new Resolution(addresses, ttlMillis);
+        }
+
+        static Resolution nxDomain(long ttlMillis) {
+            return new Resolution(null, ttlMillis);
+        }
+
+        boolean isNegative() {
+            return addresses == null;
+        }
+    }
+
+    private static final class CachedAnswer {
+        private final Resolution resolution;
+        private final long expiresAt;
+
+        private CachedAnswer(Resolution resolution, long expiresAt) {
+            this.resolution = resolution;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(DnsCache.class.getName());
+
+    private final Resolver resolver;
+    private final Map<String, CachedAnswer> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<Resolution>> inFlight = new ConcurrentHashMap<>();
+    private final Counter hits = Metrics.counter("isdownbot_dns_cache_total", "DNS cache lookups by result", "result", "hit");
+    private final Counter misses = Metrics.counter("isdownbot_dns_cache_total", "DNS cache lookups by result", "result", "miss");
+    private final Counter coalesced = Metrics.counter("isdownbot_dns_cache_total", "DNS cache lookups by result",
+                                                                                            "result", "coalesced");
+
+    DnsCache(Resolver resolver, int maxEntries) {
+        this.resolver = resolver;
+        // access-ordered LinkedHashMap is an LRU list
+        this.entries = new LinkedHashMap<String, CachedAnswer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAnswer> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    InetAddress[] resolve(String hostName) throws UnknownHostException {
+        Resolution cached = lookUp(hostName);
+        if (cached != null) {
+            hits.increment();
+            logger.fine("DNS cache hit for " + hostName);
+            return addressesOf(hostName, cached);
+        }
+
+        CompletableFuture<Resolution> ours = new CompletableFuture<>();
+        CompletableFuture<Resolution> running = inFlight.putIfAbsent(hostName, ours);
+        if (running != null) {
+            coalesced.increment();
+            // somebody is already resolving this name, wait for their answer
+            try {
+                return addressesOf(hostName, running.join());
+            } catch (CompletionException lookupFailed) {
+                if (lookupFailed.getCause() instanceof UnknownHostException)
+                    throw (UnknownHostException) lookupFailed.getCause();
+                throw lookupFailed;
+            }
+        }
+
+        try {
+            // the previous in-flight lookup may have finished between our cache miss and putIfAbsent
+            Resolution resolution = lookUp(hostName);
+            if (resolution == null) {
+                misses.increment();
+                resolution = resolver.resolve(hostName);
+                // callers probe addresses[0], an empty answer is a failed lookup and never cached
+                if (!resolution.isNegative() && resolution.addresses.length == 0)
+                    throw new UnknownHostException(hostName + ": no usable addresses");
+                store(hostName, resolution);
+            }
+            ours.complete(resolution);
+            return addressesOf(hostName, resolution);
+        } catch (UnknownHostException | RuntimeException lookupFailed) {
+            // failures other than NXDOMAIN are not cached
+            ours.completeExceptionally(lookupFailed);
+            throw lookupFailed;
+        } finally {
+            inFlight.remove(hostName, ours);
+        }
+    }
+
+    void invalidate(String hostName) {
+        synchronized (entries) {
+            entries.remove(hostName);
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private Resolution lookUp(String hostName) {
+        synchronized (entries) {
+            CachedAnswer answer = entries.get(hostName);
+            if (answer == null)
+                return null;
+            if (answer.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(hostName);
+                return null;
+            }
+            return answer.resolution;
+        }
+    }
+
+    private void store(String hostName, Resolution resolution) {
+        if (resolution.ttlMillis <= 0)
+            return;
+        CachedAnswer answer = new CachedAnswer(resolution, System.currentTimeMillis() + resolution.ttlMillis);
+        synchronized (entries) {
+            entries.put(hostName, answer);
+        }
+    }
+
+    private static InetAddress[] addressesOf(String hostName, Resolution resolution) throws UnknownHostException {
+        if (resolution.isNegative())
+            throw new UnknownHostException(hostName + ": NXDOMAIN");
+        return resolution.addresses.clone();
+    }
+}
@@ -0,0 +1,77 @@
+package connectiontest;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Checks a DNS server over UDP with a query for the root NS records, which every resolver and
+ * most authoritative servers answer (REFUSED is still an answer). Only SERVFAIL, silence and
+ * ICMP port unreachable (reported by the connected channel) count as down.
+ */
+final class DnsProbe implements Probe {
+    private static final int DNS_PORT = 53;
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_UDP_ANSWER = 512;
+    private static final short RECURSION_DESIRED = 0x0100;
+    private static final int RESPONSE_FLAG = 0x8000;
+    private static final short TYPE_NS = 2;
+    private static final short CLASS_IN = 1;
+    private static final int RCODE_SERVFAIL = 2;
+    private static final String[] RCODES = {"NOERROR", "FORMERR", "SERVFAIL", "NXDOMAIN", "NOTIMP", "REFUSED"};
+
+    @Override
+    public String name() {
+        return "dns";
+    }
+
+    @Override
+    public int defaultPort() {
+        return DNS_PORT;
+    }
+
+    @Override
+    public Transport transport() {
+        return Transport.UDP;
+    }
+
+    @Override
+    public Exchange open(String hostName, InetSocketAddress target) {
+        short id = (short) ThreadLocalRandom.current().nextInt();
+        return new Exchange() {
+            @Override
+            public int receiveBufferSize() {
+                return MAX_UDP_ANSWER;
+            }
+
+            @Override
+            public void start(Conversation conversation) {
+                ByteBuffer query = ByteBuffer.allocate(HEADER_SIZE + 5);
+                query.putShort(id).putShort(RECURSION_DESIRED)
+                        .putShort((short) 1).putShort((short) 0).putShort((short) 0).putShort((short) 0)
+                        .put((byte) 0) // the root name
+                        .putShort(TYPE_NS).putShort(CLASS_IN);
+                query.flip();
+                conversation.send(query);
+            }
+
+            @Override
+            public void onReceived(Conversation conversation, ByteBuffer received) {
+                // one datagram per call, strays (wrong id, not a response) are dropped
+                boolean answer = received.remaining() >= HEADER_SIZE
+                        && received.getShort(received.position()) == id
+                        && (received.getShort(received.position() + 2) & RESPONSE_FLAG) != 0;
+                int rcode = answer ? received.get(received.position() + 3) & 0x0F : -1;
+                received.position(received.limit());
+                if (!answer)
+                    return;
+                conversation.phaseDone(ProbeResult.Phase.FIRST_BYTE);
+                String name = (rcode < RCODES.length) ? RCODES[rcode] : "RCODE " + rcode;
+                if (rcode == RCODE_SERVFAIL)
+                    conversation.fail("DNS " + name);
+                else
+                    conversation.succeed("DNS " + name);
+            }
+        };
+    }
+}
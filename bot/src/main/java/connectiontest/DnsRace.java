@@ -0,0 +1,128 @@
+package connectiontest;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/*
+ * Uncached lookup racing DNS-over-HTTPS against system DNS: system DNS starts staggerMillis later,
+ * or as soon as DoH fails, and the first answer with addresses wins.
+ * NXDOMAIN from DoH is only believed (and cached) when system DNS can't resolve the name either.
+ */
+final class DnsRace implements DnsCache.Resolver {
+
+    interface SystemResolver {
+        InetAddress[] resolve(String hostName) throws UnknownHostException;
+    }
+
+    static final long MIN_TTL_SECONDS = 5;
+    private static final long MAX_TTL_SECONDS = 3600;
+    private static final long NEGATIVE_TTL_SECONDS = 60;
+    private static final long SYSTEM_TTL_SECONDS = 30;
+    private static final Comparator<InetAddress> IPV4_FIRST =
+            Comparator.comparing(address -> !(address instanceof Inet4Address));
+
+    private static final Logger logger = Logger.getLogger(DnsRace.class.getName());
+
+    private static final LatencyHistogram dohLookupTime = Metrics.histogram("isdownbot_dns_lookup_seconds",
+            "Uncached DNS lookups by source", "source", "doh");
+    private static final LatencyHistogram systemLookupTime = Metrics.histogram("isdownbot_dns_lookup_seconds",
+            "Uncached DNS lookups by source", "source", "system");
+    private static final Counter dohWins = Metrics.counter("isdownbot_dns_race_wins_total",
+            "Uncached lookups by the source that answered first", "source", "doh");
+    private static final Counter systemWins = Metrics.counter("isdownbot_dns_race_wins_total",
+            "Uncached lookups by the source that answered first", "source", "system");
+
+    private final DohResolver dohResolver;
+    private final SystemResolver systemResolver;
+    private final long staggerMillis;
+
+    DnsRace(DohResolver dohResolver, SystemResolver systemResolver, long staggerMillis) {
+        this.dohResolver = dohResolver;
+        this.systemResolver = systemResolver;
+        this.staggerMillis = staggerMillis;
+    }
+
+    @Override
+    public DnsCache.Resolution resolve(String hostName) throws UnknownHostException {
+        CompletableFuture<DnsCache.Resolution> winner = new CompletableFuture<>();
+        CompletableFuture<DnsCache.Resolution> system = new CompletableFuture<>();
+        AtomicBoolean systemStarted = new AtomicBoolean();
+        Runnable startSystem = () -> {
+            if (!winner.isDone() && systemStarted.compareAndSet(false, true))
+                Thread.ofVirtual().name("system-dns").start(() -> systemLookUp(hostName, system));
+        };
+
+        long start = System.nanoTime();
+        CompletableFuture<DohResolver.Answer> doh = dohResolver.resolve(hostName);
+        doh.whenComplete((answer, failure) -> {
+            if (failure == null)
+                dohLookupTime.recordSince(start);
+            if (failure == null && !answer.isNxDomain()) {
+                long ttlMillis = clampTtlMillis(answer.getTtlSeconds());
+                if (winner.complete(DnsCache.Resolution.of(answer.getAddresses(), ttlMillis)))
+                    dohWins.increment();
+                return;
+            }
+            logger.fine("DNS-over-HTTPS gave no addresses for " + hostName + ", waiting for system DNS");
+            startSystem.run();
+            if (system.isCompletedExceptionally())
+                bothFailed(doh, system, winner);
+        });
+        system.whenComplete((resolution, failure) -> {
+            if (failure == null) {
+                if (winner.complete(resolution))
+                    systemWins.increment();
+            } else if (doh.isDone()) {
+                bothFailed(doh, system, winner);
+            }
+        });
+        CompletableFuture.delayedExecutor(staggerMillis, TimeUnit.MILLISECONDS).execute(startSystem);
+
+        try {
+            return winner.join();
+        } catch (CompletionException failed) {
+            if (failed.getCause() instanceof UnknownHostException)
+                throw (UnknownHostException) failed.getCause();
+            throw new UnknownHostException(hostName + ": " + failed.getCause());
+        }
+    }
+
+    // both are done and neither found an address
+    private static void bothFailed(CompletableFuture<DohResolver.Answer> doh, CompletableFuture<DnsCache.Resolution> system,
+                                   CompletableFuture<DnsCache.Resolution> winner) {
+        boolean nxDomain = !doh.isCompletedExceptionally() && doh.join().isNxDomain();
+        if (nxDomain) {
+            winner.complete(DnsCache.Resolution.nxDomain(TimeUnit.SECONDS.toMillis(NEGATIVE_TTL_SECONDS)));
+            return;
+        }
+        system.whenComplete((ignored, systemFailure) -> winner.completeExceptionally(systemFailure));
+    }
+
+    private void systemLookUp(String hostName, CompletableFuture<DnsCache.Resolution> result) {
+        long start = System.nanoTime();
+        try {
+            InetAddress[] addresses = systemResolver.resolve(hostName);
+            systemLookupTime.recordSince(start);
+            Arrays.sort(addresses, IPV4_FIRST);
+            result.complete(DnsCache.Resolution.of(addresses, TimeUnit.SECONDS.toMillis(SYSTEM_TTL_SECONDS)));
+        } catch (UnknownHostException | RuntimeException systemDnsFailed) {
+            result.completeExceptionally(systemDnsFailed);
+        }
+    }
+
+    private static long clampTtlMillis(long ttlSeconds) {
+        return TimeUnit.SECONDS.toMillis(Math.min(Math.max(ttlSeconds, MIN_TTL_SECONDS), MAX_TTL_SECONDS));
+    }
+}
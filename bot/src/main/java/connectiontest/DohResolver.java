@@ -0,0 +1,218 @@
+package connectiontest;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/*
+ * Asynchronous JSON DNS-over-HTTPS client. One HttpClient keeps its connections alive
+ * (multiplexed over HTTP/2 where the endpoint speaks it), so a lookup costs a round trip instead of
+ * a TCP and TLS handshake. A and AAAA are asked for in parallel, a failed AAAA query leaves the
+ * IPv4 answer alone. Endpoints are tried in order; the one that last answered is asked first,
+ * so a dead endpoint costs one timeout and not one per lookup.
+ */
+final class DohResolver {
+    // dns.google, cloudflare-dns.com and most other public resolvers speak this JSON dialect
+    private static final String ACCEPT = "application/dns-json";
+    private static final int TYPE_A = 1;
+    private static final int TYPE_AAAA = 28;
+    private static final int DNS_NOERROR = 0;
+    private static final int DNS_NXDOMAIN = 3;
+
+    private static final Logger logger = Logger.getLogger(DohResolver.class.getName());
+
+    // a negative answer is not an error, the caller decides what NXDOMAIN is worth
+    static final class Answer {
+        private final InetAddress[] addresses; // IPv4 first, empty for NXDOMAIN
+        private final long ttlSeconds;
+        private final boolean nxDomain;
+
+        private Answer(InetAddress[] addresses, long ttlSeconds, boolean nxDomain) {
+            this.addresses = addresses;
+            this.ttlSeconds = ttlSeconds;
+            this.nxDomain = nxDomain;
+        }
+
+        InetAddress[] getAddresses() {
+            return addresses;
+        }
+
+        long getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        boolean isNxDomain() {
+            return nxDomain;
+        }
+    }
+
+    private final List<String> endpoints;
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final long defaultTtlSeconds;
+    private final AtomicInteger preferred = new AtomicInteger();
+
+    // endpoints are url prefixes the name is appended to, like "https://dns.google/resolve?name="
+    DohResolver(List<String> endpoints, int timeoutMillis, long defaultTtlSeconds) {
+        if (endpoints.isEmpty())
+            throw new IllegalArgumentException("No DNS-over-HTTPS endpoints");
+        this.endpoints = new ArrayList<>(endpoints);
+        this.requestTimeout = Duration.ofMillis(timeoutMillis);
+        this.defaultTtlSeconds = defaultTtlSeconds;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(requestTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    // comma separated, blanks ignored
+    static List<String> parseEndpoints(String endpoints) {
+        return Arrays.stream(endpoints.split(","))
+                .map(String::trim)
+                .filter(endpoint -> !endpoint.isEmpty())
+                .toList();
+    }
+
+    // fails with UnknownHostException when no endpoint gave a usable answer
+    CompletableFuture<Answer> resolve(String hostName) {
+        int first = preferred.get();
+        return resolve(hostName, first, 0);
+    }
+
+    private CompletableFuture<Answer> resolve(String hostName, int endpoint, int attempt) {
+        CompletableFuture<ParsedAnswer> a = query(endpoint, hostName, TYPE_A);
+        // a failed AAAA query only costs the IPv6 addresses, whether the endpoint answered is up to A
+        CompletableFuture<ParsedAnswer> aaaa = query(endpoint, hostName, TYPE_AAAA).handle((answer, failure) -> {
+            if (failure == null)
+                return answer;
+            logger.fine("AAAA lookup of " + hostName + " at " + endpoints.get(endpoint) + " failed: " + failure);
+            return NO_ANSWER;
+        });
+        return a.thenCombine(aaaa, this::merge)
+                .handle((answer, failure) -> {
+                    if (failure == null) {
+                        preferred.set(endpoint);
+                        return CompletableFuture.completedFuture(answer);
+                    }
+                    Throwable cause = (failure instanceof CompletionException) ? failure.getCause() : failure;
+                    logger.fine("DNS-over-HTTPS endpoint " + endpoints.get(endpoint) + " failed for " + hostName + ": " + cause);
+                    if (attempt + 1 >= endpoints.size())
+                        return CompletableFuture.<Answer>failedFuture(unknownHost(hostName, cause));
+                    return resolve(hostName, (endpoint + 1) % endpoints.size(), attempt + 1);
+                })
+                .thenCompose(next -> next);
+    }
+
+    private CompletableFuture<ParsedAnswer> query(int endpoint, String hostName, int type) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(endpoints.get(endpoint)
+                        + URLEncoder.encode(hostName, StandardCharsets.UTF_8) + "&type=" + type))
+                .header("Accept", ACCEPT)
+                .timeout(requestTimeout)
+                .GET()
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200)
+                        throw new CompletionException(new UnknownHostException("HTTP " + response.statusCode()));
+                    return parse(response.body(), type, hostName);
+                });
+    }
+
+    private static final class ParsedAnswer {
+        private final List<InetAddress> addresses;
+        private final long ttlSeconds; // -1 without records
+        private final int status;
+
+        private ParsedAnswer(List<InetAddress> addresses, long ttlSeconds, int status) {
+            this.addresses = addresses;
+            this.ttlSeconds = ttlSeconds;
+            this.status = status;
+        }
+    }
+
+    private static final ParsedAnswer NO_ANSWER = new ParsedAnswer(List.of(), -1, DNS_NOERROR);
+
+    // {"Status":0,"Answer":[{"name":"example.com.","type":1,"TTL":300,"data":"93.184.216.34"}, ...]}
+    private static ParsedAnswer parse(String body, int type, String hostName) {
+        JSONObject response = new JSONObject(body);
+        int status = response.optInt("Status", DNS_NOERROR);
+        List<InetAddress> addresses = new ArrayList<>();
+        long ttlSeconds = -1;
+        JSONArray records = response.optJSONArray("Answer");
+        if (records != null) {
+            for (Object element : records) {
+                JSONObject record = (JSONObject) element;
+                // the answer lives as long as its shortest-lived record, CNAMEs on the way included
+                long ttl = record.optLong("TTL", -1);
+                if (ttl >= 0)
+                    ttlSeconds = (ttlSeconds == -1) ? ttl : Math.min(ttlSeconds, ttl);
+                if (record.optInt("type", -1) != type)
+                    continue;
+                InetAddress address = literal(hostName, record.getString("data"));
+                if (address != null)
+                    addresses.add(address);
+            }
+        }
+        return new ParsedAnswer(addresses, ttlSeconds, status);
+    }
+
+    // parses the data of A and AAAA records, never a lookup
+    private static InetAddress literal(String hostName, String data) {
+        try {
+            long packed = HostParser.parseIPv4(data);
+            if (packed != HostParser.INVALID_IPV4)
+                return InetAddress.getByAddress(hostName, new byte[] {(byte) (packed >>> 24), (byte) (packed >>> 16),
+                                                                      (byte) (packed >>> 8), (byte) packed});
+            if (HostParser.isIPv6(data))
+                return InetAddress.getByAddress(hostName, InetAddress.getByName(data).getAddress());
+        } catch (UnknownHostException notAnAddress) {
+            // not reached for validated literals
+        }
+        return null;
+    }
+
+    private Answer merge(ParsedAnswer a, ParsedAnswer aaaa) {
+        if (a.status != DNS_NOERROR && a.status != DNS_NXDOMAIN)
+            throw new CompletionException(new UnknownHostException("DNS status " + a.status));
+        List<InetAddress> addresses = new ArrayList<>(a.addresses.size() + aaaa.addresses.size());
+        addresses.addAll(a.addresses);
+        addresses.addAll(aaaa.addresses);
+        addresses.sort((x, y) -> Boolean.compare(!(x instanceof Inet4Address), !(y instanceof Inet4Address)));
+        long ttlSeconds = minTtl(minTtl(-1, a.ttlSeconds), aaaa.ttlSeconds);
+        boolean nxDomain = a.status == DNS_NXDOMAIN;
+        if (addresses.isEmpty() && !nxDomain)
+            throw new CompletionException(new UnknownHostException("No A or AAAA records"));
+        return new Answer(addresses.toArray(new InetAddress[0]),
+                (ttlSeconds == -1) ? defaultTtlSeconds : ttlSeconds, nxDomain);
+    }
+
+    private static long minTtl(long x, long y) {
+        if (x == -1)
+            return y;
+        return (y == -1) ? x : Math.min(x, y);
+    }
+
+    private static UnknownHostException unknownHost(String hostName, Throwable cause) {
+        UnknownHostException failure = new UnknownHostException("DNS-over-HTTPS lookup of " + hostName + " failed");
+        failure.initCause(cause);
+        return failure;
+    }
+}
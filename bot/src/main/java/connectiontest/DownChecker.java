@@ -0,0 +1,382 @@
+package connectiontest;
+
+import database.DBHandler;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class DownChecker {
+    private static final int FAN_OUT_GRACE_MILLIS = 500;
+    // range /setTimeout accepts, probes clamp whatever is stored into it
+    public static final int MIN_TIMEOUT_MILLIS = ProbeEngine.MIN_TIMEOUT_MILLIS;
+    public static final int MAX_TIMEOUT_MILLIS = ProbeEngine.MAX_TIMEOUT_MILLIS;
+    // what http:// and https:// checks send
+    public static final String HEAD = Probe.HEAD;
+    public static final String GET = Probe.GET;
+    // windows of the "checked by N users" lines
+    private static final long QUICK_CHECK_WINDOW_MINUTES = 120;
+    private static final long FULL_CHECK_WINDOW_MINUTES = 60 * 24;
+
+    private DBHandler dbConnection; // null on probe workers
+    private CheckJob job;           // prepared from dbConnection on the first check otherwise
+    private String url;
+    private String httpMethod;
+    private String hostName;
+    private Probe probe;
+    private int port;
+    private InetAddress[] addresses = null;
+    private int timeOut;
+    private long userId;
+    private CheckCoalescer coalescer;
+    private ProxyHealthMonitor proxyHealth;
+    private Map<Proxy, String> proxyCountries = Collections.emptyMap();
+
+    public DownChecker(DBHandler dbConnection, String hostName, long telegramUserId) {
+        this(dbConnection, hostName, telegramUserId, null, null);
+    }
+
+    public DownChecker(DBHandler dbConnection, String url, long telegramUserId,
+                       CheckCoalescer coalescer, ProxyHealthMonitor proxyHealth) throws IllegalArgumentException {
+        this(dbConnection, url, HEAD, telegramUserId, coalescer, proxyHealth);
+    }
+
+    // checks sharing the coalescer share their DNS lookups and probes,
+    // with a health monitor fullCheck skips known-dead proxies and tries the best ones first.
+    // The url scheme picks the probe: tcp:// (the default), tls://, http://, https:// or dns://;
+    // http(s) urls get a request for their path and query, httpMethod HEAD or GET
+    public DownChecker(DBHandler dbConnection, String url, String httpMethod, long telegramUserId,
+                       CheckCoalescer coalescer, ProxyHealthMonitor proxyHealth) throws IllegalArgumentException {
+        this(url, httpMethod, telegramUserId, coalescer, proxyHealth);
+        this.dbConnection = dbConnection;
+    }
+
+    // a check prepared by the front end, runs without a database
+    DownChecker(CheckJob job, CheckCoalescer coalescer, ProxyHealthMonitor proxyHealth) throws IllegalArgumentException {
+        this(job.getUrl(), job.getHttpMethod(), job.getUserId(), coalescer, proxyHealth);
+        use(job);
+    }
+
+    private DownChecker(String url, String httpMethod, long telegramUserId, CheckCoalescer coalescer,
+                        ProxyHealthMonitor proxyHealth) {
+        this.url = url;
+        this.httpMethod = httpMethod;
+        this.hostName = IsDownCheckHelper.parseUrl(url);
+        this.probe = Probe.forUrl(url, httpMethod);
+        int explicitPort = HostParser.portOf(url);
+        this.port = (explicitPort == -1) ? probe.defaultPort() : explicitPort;
+        this.userId = telegramUserId;
+        this.coalescer = coalescer;
+        this.proxyHealth = proxyHealth;
+    }
+
+    /*
+     * Everything a check of the url needs from the database, read on the front end: the access is
+     * recorded, then the user's timeout, proxies with their countries (full checks only) and the
+     * number of users who checked the host are put into the job.
+     */
+    static CheckJob prepareJob(DBHandler dbConnection, long jobId, CheckJob.Kind kind, String url, String httpMethod,
+                               long userId) throws IllegalArgumentException {
+        String hostName = IsDownCheckHelper.parseUrl(url);
+        Probe.forUrl(url, httpMethod);
+        dbConnection.setUrlAccessed(hostName, userId);
+        List<String> proxies = new ArrayList<>();
+        List<String> countries = new ArrayList<>();
+        if (kind == CheckJob.Kind.FULL) {
+            for (Proxy proxy : dbConnection.getUserProxyList(userId)) {
+                // InetSocketAddress.toString() of unresolved addresses is "ip/<unresolved>:port" since Java 14
+                InetSocketAddress address = (InetSocketAddress) proxy.address();
+                String host = address.getHostString();
+                proxies.add(host + ':' + address.getPort());
+                // ip2nation only knows IPv4 addresses
+                countries.add(IsDownCheckHelper.isIPv4(host) ? dbConnection.getCountry(IsDownCheckHelper.ipStringToLong(host)) : null);
+            }
+        }
+        long window = (kind == CheckJob.Kind.QUICK) ? QUICK_CHECK_WINDOW_MINUTES : FULL_CHECK_WINDOW_MINUTES;
+        return new CheckJob(jobId, kind, url, httpMethod, userId, dbConnection.getCustomTimeout(userId),
+                            proxies, countries, dbConnection.accessedLastNMinutes(hostName, window));
+    }
+
+    // the job of a local check, read from the database when the check starts
+    private CheckJob prepared(CheckJob.Kind kind) {
+        if (job == null)
+            use(prepareJob(dbConnection, 0, kind, url, httpMethod, userId));
+        return job;
+    }
+
+    private void use(CheckJob prepared) {
+        job = prepared;
+        timeOut = ProbeEngine.clampTimeout(prepared.getTimeOutMs());
+        proxyCountries = new HashMap<>();
+        for (int p = 0; p < prepared.getProxies().size(); p++)
+            proxyCountries.put(toProxy(prepared.getProxies().get(p)), prepared.getProxyCountries().get(p));
+    }
+
+    // SOCKS proxy of "host:port", the host is never resolved here
+    private static Proxy toProxy(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        return new Proxy(Proxy.Type.SOCKS, InetSocketAddress.createUnresolved(hostPort.substring(0, colon),
+                                                                         Integer.parseInt(hostPort.substring(colon + 1))));
+    }
+
+    // addresses will be null if the lookup fails
+    private void resolveAddresses() {
+        try {
+            addresses = IsDownCheckHelper.getByHostName(hostName);
+        } catch (UnknownHostException dnsLookupFailed) {
+            addresses = null;
+        }
+    }
+
+    private QuickCheckOutcome probeFirstAddress() {
+        long start = System.nanoTime();
+        resolveAddresses();
+        long dnsMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (addresses == null)
+            return new QuickCheckOutcome(null, null);
+        ProbeResult result = probe(addresses[0], null).join();
+        return new QuickCheckOutcome(addresses[0], result.withDnsMillis(dnsMillis));
+    }
+
+    private CompletableFuture<ProbeResult> probe(InetAddress address, Proxy proxy) {
+        return IsDownCheckHelper.probe(probe, hostName, new InetSocketAddress(address, port), proxy, timeOut);
+    }
+
+    // what quickCheck results are shared by, checks of one host with other probes are different checks
+    private String checkKey() {
+        return probe.name() + "://" + hostName + ':' + port;
+    }
+
+    // the probe and port only when the user asked for something else than the default
+    private String probeToString() {
+        if (probe == Probe.TCP && port == probe.defaultPort())
+            return "";
+        return "\nProbe: " + probe.name() + ", port " + port;
+    }
+
+    private String proxyToString(Proxy proxy) {
+        InetSocketAddress address = (InetSocketAddress) proxy.address();
+        String proxyStr = address.getHostString() + ':' + address.getPort();
+        String country = countryOf(proxy);
+        return (country == null) ? proxyStr : proxyStr + " (" + country + ")";
+    }
+
+    // where ip2nation puts the proxy, null if unknown
+    private String countryOf(Proxy proxy) {
+        return proxyCountries.get(proxy);
+    }
+
+    private String proxyHealthToString(Proxy proxy) {
+        String health = (proxyHealth == null) ? null : proxyHealth.describe(proxy);
+        return (health == null) ? "" : " - " + health;
+    }
+
+    private boolean isKnownDead(Proxy proxy) {
+        return proxyHealth != null && proxyHealth.isDead(proxy);
+    }
+
+    private static String formatResult(ProbeResult result) {
+        if (result == null)
+            return "NO ANSWER";
+        return result.isAvailable()
+                ? "OK (" + (result.getDetail() == null ? "" : result.getDetail() + ", ") + result.getLatencyMillis() + " ms)"
+                : "FAILED (" + result.getError() + cachedToString(result) + ")";
+    }
+
+    // failures the circuit breaker answered with instead of probing again
+    private static String cachedToString(ProbeResult result) {
+        if (!result.isCached())
+            return "";
+        return "; cached, checked " + TimeUnit.MILLISECONDS.toSeconds(result.getAgeMillis()) + " s ago";
+    }
+
+    // "HTTP 200; dns 1 ms, connect 20 ms, first byte 35 ms", empty for a plain connect
+    private static String formatStatusDetails(ProbeResult result) {
+        String outcome = result.isAvailable() ? result.getDetail() : result.getError();
+        String phases = result.getDetail() == null && result.isAvailable() ? "" : result.describePhases();
+        if (outcome == null)
+            return phases.isEmpty() ? "" : " (" + phases + ")";
+        return " (" + outcome + (phases.isEmpty() ? "" : "; " + phases) + cachedToString(result) + ")";
+    }
+
+    // checks just one ip without proxy
+    public String quickCheck() {
+        CheckJob job = prepared(CheckJob.Kind.QUICK);
+        QuickCheckOutcome outcome = (coalescer == null)
+                ? probeFirstAddress()
+                : coalescer.quickCheck(checkKey(), timeOut, Collections.emptyList(), this::probeFirstAddress);
+        String message = "Website: " + hostName + probeToString() + "\nServer IP: " + (
+                (outcome.getAddress() == null) ? "Not found" : outcome.getAddress().getHostAddress()
+        );
+        if (outcome.getAddress() != null) {
+            message += "\nServer status: " + (
+                    outcome.getProbe().isAvailable() ? "On" : "Off"
+            ) + "line" + formatStatusDetails(outcome.getProbe());
+        }
+        long haveChecked = job.getUsersChecked();
+        return message + "\n\n" + "Checked last two hours by "
+                + haveChecked + ((haveChecked % 10 == 1) ? " user." : " users.");
+    }
+
+    public String fullCheck() {
+        return fullCheck(null);
+    }
+
+    // listener (may be null) is told about every probe as it completes, the final report is returned.
+    // With a coalescer, a check of the same host through the same proxies shortly before is reused
+    // as it is, listener is not called then
+    public String fullCheck(FullCheckListener listener) {
+        CheckJob job = prepared(CheckJob.Kind.FULL);
+        List<Proxy> proxies = job.getProxies().stream().map(DownChecker::toProxy).collect(Collectors.toList());
+        if (proxyHealth != null)
+            proxies = proxyHealth.prioritize(proxies);
+        List<Proxy> vantages = proxies;
+        List<String> proxyNames = proxies.stream().map(this::proxyToString).collect(Collectors.toList());
+
+        long usersChecked = job.getUsersChecked();
+        String footer = "\nChecked last 24 hours by " + usersChecked + " user"
+                // plural
+                + ((usersChecked % 10 != 1) ? "s" : "");
+
+        boolean[] probedNow = {coalescer == null};
+        FullCheckOutcome outcome = (coalescer == null)
+                ? probeMatrix(vantages, proxyNames, footer, listener)
+                : coalescer.fullCheck(checkKey(), timeOut, vantages, () -> {
+                    probedNow[0] = true;
+                    return probeMatrix(vantages, proxyNames, footer, listener);
+                });
+        addresses = outcome.getAddresses();
+        String header = header(proxies, proxyNames);
+        if (addresses == null)
+            return header;
+        String consensus = outcome.getConsensus().describe();
+        if (!probedNow[0])
+            consensus += "\n(cached, checked " + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - outcome.getCheckedAt())
+                    + " s ago)";
+        return render(header, proxyNames, outcome.cellsFor(vantages), formatResult(null), "\n" + consensus + "\n" + footer);
+    }
+
+    // the part above the results, up to "none found" if the host did not resolve
+    private String header(List<Proxy> proxies, List<String> proxyNames) {
+        StringBuilder header = new StringBuilder();
+        header.append("Website: ").append(hostName).append(probeToString()).append("\nServers` IPs: ");
+        if (addresses == null)
+            return header.append("none found").toString();
+        header.append('\n');
+        // print server IPs
+        Stream.of(addresses).forEach(ip -> header.append(ip.getHostAddress()).append('\n'));
+
+        header.append("Your proxies: ");
+        if (proxies.isEmpty()) {
+            header.append("none");
+        } else {
+            for (int p = 0; p < proxies.size(); p++) {
+                header.append('\n').append(proxyNames.get(p)).append(proxyHealthToString(proxies.get(p)));
+            }
+        }
+        return header.append('\n').toString();
+    }
+
+    private FullCheckOutcome probeMatrix(List<Proxy> proxies, List<String> proxyNames, String footer,
+                                         FullCheckListener listener) {
+        resolveAddresses();
+        if (addresses == null)
+            return new FullCheckOutcome(null, null, null, null);
+        String header = header(proxies, proxyNames);
+
+        // launch the whole address x {direct, proxies} matrix at once, each row is {direct, proxy1, proxy2, ...}
+        // and report cells in the order probes complete
+        String[][] cells = new String[addresses.length][proxies.size() + 1];
+        ProbeResult[][] results = new ProbeResult[addresses.length][proxies.size() + 1];
+        List<List<CompletableFuture<ProbeResult>>> probes = new ArrayList<>(addresses.length);
+        LinkedBlockingQueue<int[]> completed = new LinkedBlockingQueue<>();
+        int running = 0;
+        for (int i = 0; i < addresses.length; i++) {
+            List<CompletableFuture<ProbeResult>> row = new ArrayList<>(proxies.size() + 1);
+            for (int j = 0; j <= proxies.size(); j++) {
+                Proxy proxy = (j == 0) ? null : proxies.get(j - 1);
+                if (proxy != null && isKnownDead(proxy)) {
+                    // known-dead proxies would only burn a full timeout
+                    cells[i][j] = "SKIPPED, known dead (" + proxyHealth.describe(proxy) + ')';
+                    row.add(null);
+                    continue;
+                }
+                if (proxy != null && probe.transport() == Probe.Transport.UDP) {
+                    cells[i][j] = "SKIPPED, UDP does not go through SOCKS proxies";
+                    row.add(null);
+                    continue;
+                }
+                CompletableFuture<ProbeResult> cellProbe = probe(addresses[i], proxy);
+                int[] cell = {i, j};
+                cellProbe.whenComplete((result, failure) -> completed.add(cell));
+                row.add(cellProbe);
+                running++;
+            }
+            probes.add(row);
+        }
+
+        // single deadline for the whole matrix, probes time out on their own so this is only a safety net
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos((long) timeOut + FAN_OUT_GRACE_MILLIS);
+        try {
+            for (; running > 0; running--) {
+                int[] cell = completed.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (cell == null)
+                    break;
+                int i = cell[0], j = cell[1];
+                Proxy proxy = (j == 0) ? null : proxies.get(j - 1);
+                ProbeResult result = resultOf(probes.get(i).get(j));
+                if (proxy != null && proxyHealth != null && result != null && result.isAvailable())
+                    proxyHealth.recordSuccess(proxy, result.getLatencyMillis());
+                results[i][j] = result;
+                cells[i][j] = formatResult(result);
+                if (listener != null)
+                    listener.onProbeCompleted(addresses[i], proxy, result,
+                            render(header, proxyNames, cells, "checking...", footer));
+            }
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<String> vantageRegions = new ArrayList<>(proxies.size() + 1);
+        vantageRegions.add(Consensus.DIRECT);
+        for (Proxy proxy : proxies) {
+            String country = countryOf(proxy);
+            vantageRegions.add(country == null ? "Unknown" : country);
+        }
+        List<String> probedThrough = proxies.stream().map(CheckCoalescer::addressOf).collect(Collectors.toList());
+        return new FullCheckOutcome(addresses, probedThrough, cells, Consensus.of(results, vantageRegions));
+    }
+
+    // null if the probe failed without a result
+    private static ProbeResult resultOf(CompletableFuture<ProbeResult> probe) {
+        return probe.isCompletedExceptionally() ? null : probe.join();
+    }
+
+    private String render(CharSequence header, List<String> proxyNames, String[][] cells, String pending, String footer) {
+        StringBuilder message = new StringBuilder(header);
+        for (int i = 0; i < addresses.length; i++) {
+            String ip = addresses[i].getHostAddress();
+            message.append("Trying ").append(ip.indexOf(':') == -1 ? ip : '[' + ip + ']').append(':').append(port)
+                    .append(probe == Probe.TCP ? "" : " (" + probe.name() + ")").append("...\n");
+            message.append("Without proxy: ").append(cells[i][0] == null ? pending : cells[i][0]);
+            for (int p = 0; p < proxyNames.size(); p++) {
+                String cell = cells[i][p + 1];
+                message.append("\nWith proxy ").append(proxyNames.get(p)).append(": ").append(cell == null ? pending : cell);
+            }
+            message.append('\n');
+        }
+        return message.append(footer).toString();
+    }
+
+}
@@ -0,0 +1,14 @@
+package connectiontest;
+
+import java.net.InetAddress;
+import java.net.Proxy;
+
+/*
+ * Receives fullCheck results while the check runs, called on the checking thread once per probe
+ * in completion order. report is the whole fullCheck message as far as known, probes still
+ * running are shown as pending.
+ */
+public interface FullCheckListener {
+    // proxy is null for the direct probe
+    void onProbeCompleted(InetAddress address, Proxy proxy, ProbeResult result, String report);
+}
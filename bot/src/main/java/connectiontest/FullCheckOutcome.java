@@ -0,0 +1,55 @@
+package connectiontest;
+
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.util.List;
+
+/*
+ * Network part of a fullCheck, shared by users checking the host through the same proxies for a while.
+ * Users may list (or have prioritized) the same proxies in another order, so the proxy columns are
+ * only ever read through cellsFor with the reader's own order.
+ */
+final class FullCheckOutcome {
+    private final InetAddress[] addresses;
+    private final List<String> proxies; // "host:port" of the proxy columns, in the order they were probed
+    private final String[][] cells;
+    private final Consensus consensus;
+    private final long checkedAt = System.currentTimeMillis();
+
+    FullCheckOutcome(InetAddress[] addresses, List<String> proxies, String[][] cells, Consensus consensus) {
+        this.addresses = addresses;
+        this.proxies = proxies;
+        this.cells = cells;
+        this.consensus = consensus;
+    }
+
+    // null if the host name did not resolve
+    InetAddress[] getAddresses() {
+        return addresses;
+    }
+
+    // formatted results, [address][direct, then the given proxies in their order]; they must be the
+    // proxies the check ran with, as the coalescer's key makes sure
+    String[][] cellsFor(List<Proxy> order) {
+        String[][] ordered = new String[cells.length][order.size() + 1];
+        for (int p = 0; p < order.size(); p++) {
+            int column = proxies.indexOf(CheckCoalescer.addressOf(order.get(p)));
+            if (column == -1)
+                throw new IllegalArgumentException("Not checked through " + order.get(p).address());
+            for (int i = 0; i < cells.length; i++)
+                ordered[i][p + 1] = cells[i][column + 1];
+        }
+        for (int i = 0; i < cells.length; i++)
+            ordered[i][0] = cells[i][0];
+        return ordered;
+    }
+
+    // null if the host name did not resolve
+    Consensus getConsensus() {
+        return consensus;
+    }
+
+    long getCheckedAt() {
+        return checkedAt;
+    }
+}
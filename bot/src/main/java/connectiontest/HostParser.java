@@ -0,0 +1,274 @@
+package connectiontest;
+
+import java.net.IDN;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Hand-rolled parsing of what users type and DNS answers contain, one pass over the characters
+ * without regexes, splitting or intermediate strings:
+ * host out of a URL ("https://user@Example.com:8080/path" -> "example.com"), IPv4 validation
+ * packed into the low 32 bits of a long, and IPv6 literal validation.
+ */
+final class HostParser {
+    static final long INVALID_IPV4 = -1;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private HostParser() {
+    }
+
+    /*
+     * Host part of the url: scheme, userinfo, port, path, query and fragment are dropped, brackets
+     * of IPv6 literals too (a bare literal has no port). Lower-cased, internationalized names
+     * converted to punycode.
+     * Returns the url itself when it already is a plain host name.
+     */
+    static String hostOf(String url) throws IllegalArgumentException {
+        int length = url.length();
+        int start = authorityStart(url);
+        int end = authorityEnd(url, start);
+        int lastAt = url.lastIndexOf('@', end - 1);
+        if (lastAt >= start)
+            start = lastAt + 1;
+        if (start >= end)
+            throw new IllegalArgumentException("Not a valid url, no host in " + url);
+
+        int hostEnd;
+        if (url.charAt(start) == '[') {
+            int close = url.indexOf(']', start);
+            if (close == -1 || close > end || !isIPv6(url, start + 1, close))
+                throw new IllegalArgumentException("Not a valid IPv6 address in " + url);
+            checkPort(url, close + 1, end);
+            return url.substring(start + 1, close).toLowerCase();
+        }
+        // a bare IPv6 literal ("2001:db8::1") can't carry a port, its colons are not one
+        if (isIPv6(url, start, end))
+            return url.substring(start, end).toLowerCase();
+        hostEnd = start;
+        boolean lowerAscii = true;
+        while (hostEnd < end && url.charAt(hostEnd) != ':') {
+            char c = url.charAt(hostEnd);
+            if (c >= 0x80 || (c >= 'A' && c <= 'Z'))
+                lowerAscii = false;
+            hostEnd++;
+        }
+        checkPort(url, hostEnd, end);
+        if (hostEnd > start && url.charAt(hostEnd - 1) == '.')
+            hostEnd--; // fully qualified "example.com."
+        if (hostEnd == start)
+            throw new IllegalArgumentException("Not a valid url, no host in " + url);
+
+        if (lowerAscii)
+            return (start == 0 && hostEnd == length) ? url : url.substring(start, hostEnd);
+        String host = url.substring(start, hostEnd);
+        return IDN.toASCII(host, IDN.ALLOW_UNASSIGNED).toLowerCase();
+    }
+
+    // lower-cased scheme ("https" of "https://example.com"), null without one
+    static String schemeOf(String url) {
+        int start = authorityStart(url);
+        return start == 0 ? null : url.substring(0, start - 3).toLowerCase();
+    }
+
+    // explicit port of the url, -1 without one; the url must have passed hostOf
+    static int portOf(String url) {
+        int start = authorityStart(url);
+        int end = authorityEnd(url, start);
+        int lastAt = url.lastIndexOf('@', end - 1);
+        if (lastAt >= start)
+            start = lastAt + 1;
+        if (start < end && url.charAt(start) == '[')
+            start = url.indexOf(']', start);
+        else if (isIPv6(url, start, end))
+            return -1;
+        int colon = url.indexOf(':', start);
+        if (colon == -1 || colon >= end)
+            return -1;
+        int port = 0;
+        for (int i = colon + 1; i < end; i++)
+            port = port * 10 + (url.charAt(i) - '0');
+        return port;
+    }
+
+    // request target of the url in origin-form ("/api/health?full=1"), "/" without a path; the fragment
+    // is dropped and anything a request line can't carry (spaces, controls, non-ASCII) is percent-encoded
+    static String requestTargetOf(String url) {
+        int start = authorityEnd(url, authorityStart(url));
+        int end = url.indexOf('#', start);
+        if (end == -1)
+            end = url.length();
+        if (start == end)
+            return "/";
+        StringBuilder target = new StringBuilder(end - start + 1);
+        if (url.charAt(start) != '/')
+            target.append('/'); // "example.com?x=1"
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c > ' ' && c < 0x7f && c != '"' && c != '<' && c != '>' && c != '\\' && c != '^' && c != '`'
+                    && c != '{' && c != '|' && c != '}') {
+                target.append(c);
+                continue;
+            }
+            int codePointEnd = Character.isHighSurrogate(c) && i + 1 < end ? i + 2 : i + 1;
+            for (byte b : url.substring(i, codePointEnd).getBytes(StandardCharsets.UTF_8))
+                target.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+            i = codePointEnd - 1;
+        }
+        return target.toString();
+    }
+
+    // index right after "scheme://", 0 without a scheme
+    private static int authorityStart(String url) {
+        int schemeEnd = url.indexOf("://");
+        return (schemeEnd > 0 && isScheme(url, schemeEnd)) ? schemeEnd + 3 : 0;
+    }
+
+    // authority ends with the path, query or fragment
+    private static int authorityEnd(String url, int start) {
+        int end = start;
+        while (end < url.length()) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#')
+                break;
+            end++;
+        }
+        return end;
+    }
+
+    // letters, digits, '+', '-', '.', starting with a letter (RFC 3986)
+    private static boolean isScheme(String url, int end) {
+        if (!isAsciiLetter(url.charAt(0)))
+            return false;
+        for (int i = 1; i < end; i++) {
+            char c = url.charAt(i);
+            if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.')
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    // nothing or ":digits" up to 65535 between from and end
+    private static void checkPort(String url, int from, int end) {
+        if (from == end)
+            return;
+        if (url.charAt(from) != ':' || from + 1 == end || end - from - 1 > 5)
+            throw new IllegalArgumentException("Not a valid port in " + url);
+        int port = 0;
+        for (int i = from + 1; i < end; i++) {
+            char c = url.charAt(i);
+            if (c < '0' || c > '9')
+                throw new IllegalArgumentException("Not a valid port in " + url);
+            port = port * 10 + (c - '0');
+        }
+        if (port > 65535)
+            throw new IllegalArgumentException("Not a valid port in " + url);
+    }
+
+    /*
+     * Dotted-quad IPv4 packed big-endian into the low 32 bits (so it compares like the address),
+     * INVALID_IPV4 unless it is exactly four decimal octets 0-255 without leading zeros.
+     */
+    static long parseIPv4(CharSequence ip) {
+        return parseIPv4(ip, 0, ip.length());
+    }
+
+    static long parseIPv4(CharSequence ip, int from, int end) {
+        if (end - from < 7 || end - from > 15)
+            return INVALID_IPV4;
+        int packed = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = from; i < end; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits == 1 && octet == 0)
+                    return INVALID_IPV4; // leading zero, octal in some parsers
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255)
+                    return INVALID_IPV4;
+            } else if (c == '.') {
+                if (digits == 0 || ++dots > 3)
+                    return INVALID_IPV4;
+                packed = (packed << 8) | octet;
+                octet = 0;
+                digits = 0;
+            } else {
+                return INVALID_IPV4;
+            }
+        }
+        if (digits == 0 || dots != 3)
+            return INVALID_IPV4;
+        return ((packed << 8) | octet) & 0xFFFFFFFFL;
+    }
+
+    static boolean isIPv6(String ip) {
+        return isIPv6(ip, 0, ip.length());
+    }
+
+    /*
+     * RFC 4291 text form between from and end: up to eight groups of 1-4 hex digits, one "::"
+     * standing for the missing ones, optionally an IPv4 tail ("::ffff:1.2.3.4") and a zone ("%eth0").
+     */
+    static boolean isIPv6(String ip, int from, int end) {
+        int zone = ip.indexOf('%', from);
+        if (zone != -1 && zone < end) {
+            if (zone == end - 1)
+                return false;
+            end = zone;
+        }
+        if (end - from < 2)
+            return false;
+        int groups = 0;
+        boolean compressed = false;
+        int i = from;
+        if (ip.charAt(i) == ':') {
+            if (ip.charAt(i + 1) != ':')
+                return false;
+            compressed = true;
+            i += 2;
+            if (i == end)
+                return true; // "::"
+        }
+        while (i < end) {
+            int groupStart = i;
+            while (i < end && i - groupStart < 5 && isHexDigit(ip.charAt(i)))
+                i++;
+            int digits = i - groupStart;
+            if (i < end && ip.charAt(i) == '.') {
+                // embedded IPv4 takes the last two groups
+                if (parseIPv4(ip, groupStart, end) == INVALID_IPV4)
+                    return false;
+                groups += 2;
+                i = end;
+                break;
+            }
+            if (digits == 0 || digits > 4)
+                return false;
+            groups++;
+            if (i == end)
+                break;
+            if (ip.charAt(i) != ':')
+                return false;
+            i++;
+            if (i < end && ip.charAt(i) == ':') {
+                if (compressed)
+                    return false;
+                compressed = true;
+                i++;
+                if (i == end)
+                    break;
+            } else if (i == end) {
+                return false; // trailing single ':'
+            }
+        }
+        return compressed ? groups < 8 : groups == 8;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
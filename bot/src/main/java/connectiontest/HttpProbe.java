@@ -0,0 +1,176 @@
+package connectiontest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * One HTTP/1.1 request for the url's path and query, plain or over TLS, judged by the status line:
+ * any answer below 500 means the site is up (a 404 or 403 is still the site answering), 5xx means
+ * it is not, which is what a bare TCP connect to a proxy in front of a dead backend cannot tell.
+ * The response past the status line is never read, the connection is closed right away.
+ */
+final class HttpProbe implements Probe {
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+    private static final int MAX_STATUS_LINE = 1024;
+    private static final int RECEIVE_BUFFER_SIZE = 4096;
+
+    private final boolean tls;
+    private final String method;
+    private final String requestTarget; // origin-form, "/path?query"
+
+    HttpProbe(boolean tls, String method) {
+        this(tls, method, "/");
+    }
+
+    private HttpProbe(boolean tls, String method, String requestTarget) {
+        this.tls = tls;
+        this.method = method;
+        this.requestTarget = requestTarget;
+    }
+
+    // the same request for another path, requestTarget as HostParser.requestTargetOf gives it
+    HttpProbe forTarget(String requestTarget) {
+        return requestTarget.equals(this.requestTarget) ? this : new HttpProbe(tls, method, requestTarget);
+    }
+
+    @Override
+    public String name() {
+        String name = tls ? "https" : "http";
+        if (!method.equals(HEAD))
+            name += " " + method;
+        return requestTarget.equals("/") ? name : name + " " + requestTarget;
+    }
+
+    @Override
+    public int defaultPort() {
+        return tls ? HTTPS_PORT : HTTP_PORT;
+    }
+
+    @Override
+    public Transport transport() {
+        return Transport.TCP;
+    }
+
+    @Override
+    public Exchange open(String hostName, InetSocketAddress target) throws IOException {
+        return new HttpExchange(tls ? new TlsSession(hostName, target) : null, request(hostName, target));
+    }
+
+    private ByteBuffer request(String hostName, InetSocketAddress target) {
+        String host = (hostName != null) ? hostName : target.getAddress().getHostAddress();
+        if (host.indexOf(':') != -1)
+            host = '[' + host + ']';
+        if (target.getPort() != defaultPort())
+            host += ":" + target.getPort();
+        String request = method + " " + requestTarget + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "User-Agent: isDownBot\r\n"
+                + "Accept: */*\r\n"
+                + "Connection: close\r\n\r\n";
+        return ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static final class HttpExchange implements Exchange {
+        private final TlsSession tls; // null for plain HTTP
+        private final ByteBuffer request;
+        private boolean requestSent = false;
+        private boolean answered = false;
+
+        private HttpExchange(TlsSession tls, ByteBuffer request) {
+            this.tls = tls;
+            this.request = request;
+        }
+
+        @Override
+        public int receiveBufferSize() {
+            return (tls == null) ? RECEIVE_BUFFER_SIZE : tls.packetBufferSize();
+        }
+
+        @Override
+        public void start(Conversation conversation) throws IOException {
+            if (tls == null) {
+                conversation.send(request);
+                requestSent = true;
+            } else {
+                tls.start(conversation);
+            }
+        }
+
+        @Override
+        public void onReceived(Conversation conversation, ByteBuffer received) throws IOException {
+            if (tls == null) {
+                readStatus(conversation, received);
+                return;
+            }
+            boolean wasHandshaken = requestSent;
+            if (!tls.onReceived(conversation, received))
+                return;
+            if (!wasHandshaken) {
+                conversation.phaseDone(ProbeResult.Phase.TLS);
+                tls.send(conversation, request);
+                requestSent = true;
+            }
+            ByteBuffer plain = tls.plain();
+            plain.flip();
+            readStatus(conversation, plain);
+            plain.compact();
+        }
+
+        // "HTTP/1.1 200 OK\r\n", consumes nothing until the whole line is there
+        private void readStatus(Conversation conversation, ByteBuffer data) {
+            if (!data.hasRemaining())
+                return;
+            if (!answered) {
+                answered = true;
+                conversation.phaseDone(ProbeResult.Phase.FIRST_BYTE);
+            }
+            int lineEnd = -1;
+            for (int i = data.position(); i < data.limit(); i++) {
+                if (data.get(i) == '\n') {
+                    lineEnd = i;
+                    break;
+                }
+            }
+            if (lineEnd == -1) {
+                if (data.remaining() > MAX_STATUS_LINE)
+                    conversation.fail("not an HTTP server");
+                return;
+            }
+            int status = parseStatus(data, data.position(), lineEnd);
+            data.position(lineEnd + 1);
+            if (status == -1)
+                conversation.fail("not an HTTP server");
+            else if (status >= 500)
+                conversation.fail("HTTP " + status);
+            else
+                conversation.succeed("HTTP " + status);
+        }
+
+        // the three digits after "HTTP/x.y ", -1 if the line is not a status line
+        private static int parseStatus(ByteBuffer data, int from, int to) {
+            int space = -1;
+            if (to - from < 12 || data.get(from) != 'H' || data.get(from + 1) != 'T'
+                    || data.get(from + 2) != 'T' || data.get(from + 3) != 'P' || data.get(from + 4) != '/')
+                return -1;
+            for (int i = from + 5; i < to; i++) {
+                if (data.get(i) == ' ') {
+                    space = i;
+                    break;
+                }
+            }
+            if (space == -1 || to - space < 4)
+                return -1;
+            int status = 0;
+            for (int i = space + 1; i <= space + 3; i++) {
+                byte digit = data.get(i);
+                if (digit < '0' || digit > '9')
+                    return -1;
+                status = status * 10 + (digit - '0');
+            }
+            return status;
+        }
+    }
+}
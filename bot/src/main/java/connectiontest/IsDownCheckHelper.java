@@ -0,0 +1,205 @@
+package connectiontest;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+
+import java.net.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static cfg.Configuration.CONNECTION_WAIT_MILLIS;
+
+public class IsDownCheckHelper {
+
+    // comma separated JSON DNS-over-HTTPS endpoints, tried in order, overridable to point the bot
+    // (or a benchmark) elsewhere
+    private static final String DOH_ENDPOINTS = System.getProperty("isdownbot.dohUrl",
+            "https://dns.google/resolve?name=,https://cloudflare-dns.com/dns-query?name=");
+    private static final int DOH_TIMEOUT_MILLIS = Integer.getInteger("isdownbot.dohTimeoutMillis", 2000);
+    // head start DNS-over-HTTPS gets before system DNS joins the race
+    private static final long SYSTEM_DNS_STAGGER_MILLIS = Long.getLong("isdownbot.dnsStaggerMillis", 100);
+    private static InetAddress examplePage;
+    static {
+        try {
+            examplePage = InetAddress.getByName("example.com");
+        } catch (UnknownHostException willNotHappen) {}
+    }
+    private static final Logger logger = Logger.getLogger(IsDownCheckHelper.class.getName());
+
+    // port plain host names are probed on
+    private static final int HTTP_PORT = Probe.TCP.defaultPort();
+    private static final int PROBE_SELECTOR_LOOPS = 2;
+    private static final ProbeEngine probeEngine = new ProbeEngine(PROBE_SELECTOR_LOOPS);
+    // failed probes in a row before a target is left alone, and for how long at first
+    private static final int BREAKER_FAILURES = Integer.getInteger("isdownbot.breakerFailures", 3);
+    private static final long BREAKER_COOL_DOWN_MILLIS = Long.getLong("isdownbot.breakerCoolDownMillis", 30_000);
+    private static final long BREAKER_MAX_COOL_DOWN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final CircuitBreaker circuitBreaker =
+            new CircuitBreaker(BREAKER_FAILURES, BREAKER_COOL_DOWN_MILLIS, BREAKER_MAX_COOL_DOWN_MILLIS);
+
+    private static final int DNS_CACHE_SIZE = 10_000;
+    private static final DohResolver dohResolver =
+            new DohResolver(DohResolver.parseEndpoints(DOH_ENDPOINTS), DOH_TIMEOUT_MILLIS, DnsRace.MIN_TTL_SECONDS);
+    private static final DnsCache dnsCache = new DnsCache(
+            new DnsRace(dohResolver, InetAddress::getAllByName, SYSTEM_DNS_STAGGER_MILLIS), DNS_CACHE_SIZE);
+
+    private static final LatencyHistogram dnsResolveTime = Metrics.histogram("isdownbot_dns_resolve_seconds",
+            "Host name resolution as seen by checks, cache hits included");
+    private static final LatencyHistogram directConnectTime = Metrics.histogram("isdownbot_connect_seconds",
+            "Probes until answer or timeout, SOCKS handshake and the probe's exchange included", "route", "direct");
+    private static final LatencyHistogram proxyConnectTime = Metrics.histogram("isdownbot_connect_seconds",
+            "Probes until answer or timeout, SOCKS handshake and the probe's exchange included", "route", "proxy");
+    private static final Counter[] probeOutcomes = {
+            Metrics.counter("isdownbot_probes_total", "Probes by route and outcome", "route", "direct", "outcome", "ok"),
+            Metrics.counter("isdownbot_probes_total", "Probes by route and outcome", "route", "direct", "outcome", "failed"),
+            Metrics.counter("isdownbot_probes_total", "Probes by route and outcome", "route", "proxy", "outcome", "ok"),
+            Metrics.counter("isdownbot_probes_total", "Probes by route and outcome", "route", "proxy", "outcome", "failed"),
+    };
+    private static final ProbeResult.Phase[] PHASES = ProbeResult.Phase.values();
+    private static final LatencyHistogram[] phaseTime = {
+            null, // DNS is timed by dnsResolveTime
+            Metrics.histogram("isdownbot_probe_phase_seconds", "Probe phases that completed", "phase", "connect"),
+            Metrics.histogram("isdownbot_probe_phase_seconds", "Probe phases that completed", "phase", "tls"),
+            Metrics.histogram("isdownbot_probe_phase_seconds", "Probe phases that completed", "phase", "first_byte"),
+    };
+    static {
+        Metrics.gauge("isdownbot_probes_in_flight", "Connect probes waiting for an answer", probeEngine::inFlight);
+        Metrics.gauge("isdownbot_dns_cache_entries", "Cached DNS answers", dnsCache::size);
+        Metrics.gauge("isdownbot_circuits_open", "Probe targets answered from the circuit breaker", circuitBreaker::openCircuits);
+    }
+
+    // host out of whatever the user typed after the command, see HostParser.hostOf
+    static String parseUrl(String url) throws IllegalArgumentException {
+        try {
+            return HostParser.hostOf(url);
+        } catch (IllegalArgumentException badUrl) {
+            logger.warning("Invalid url parsing attempt: " + url);
+            throw badUrl;
+        }
+    }
+
+    // the address as an unsigned 32 bit number, how the ip2nation ranges are stored
+    static long ipStringToLong(String ipStr) {
+        long packed = HostParser.parseIPv4(ipStr);
+        if (packed == HostParser.INVALID_IPV4)
+            throw new IllegalArgumentException("Not an IPv4 address: " + ipStr);
+        return packed;
+    }
+
+    static boolean isIPv4(String ip) {
+        return HostParser.parseIPv4(ip) != HostParser.INVALID_IPV4;
+    }
+
+    // literal addresses, no DNS involved (and no cache entry to evict a real name)
+    private static InetAddress literalAddress(String hostName) throws UnknownHostException {
+        long packed = HostParser.parseIPv4(hostName);
+        if (packed != HostParser.INVALID_IPV4)
+            return InetAddress.getByAddress(hostName, toBytes(packed));
+        if (HostParser.isIPv6(hostName))
+            return InetAddress.getByName(hostName); // parsed, never looked up
+        return null;
+    }
+
+    private static byte[] toBytes(long packedIPv4) {
+        return new byte[] {(byte) (packedIPv4 >>> 24), (byte) (packedIPv4 >>> 16),
+                           (byte) (packedIPv4 >>> 8), (byte) packedIPv4};
+    }
+
+    static InetAddress[] getByHostName(String hostName) throws UnknownHostException {
+        InetAddress literal = literalAddress(hostName);
+        if (literal != null)
+            return new InetAddress[] {literal};
+        long start = System.nanoTime();
+        try {
+            return dnsCache.resolve(hostName);
+        } finally {
+            dnsResolveTime.recordSince(start);
+        }
+    }
+
+    static CompletableFuture<ProbeResult> probe(InetAddress addr, int timeOutMs) {
+        return measured(probeEngine.connect(new InetSocketAddress(addr, HTTP_PORT), null, timeOutMs), false);
+    }
+
+    static CompletableFuture<ProbeResult> probeWithProxy(InetAddress addr, int timeOutMs, Proxy proxy) {
+        return measured(probeEngine.connect(new InetSocketAddress(addr, HTTP_PORT), proxy, timeOutMs), true);
+    }
+
+    /*
+     * Any probe strategy, proxy null for direct; hostName is what addr was resolved from.
+     * Goes through the circuit breaker: a target that keeps failing gets its last failure back
+     * (ProbeResult.isCached) instead of another probe until its cool-down is over.
+     */
+    static CompletableFuture<ProbeResult> probe(Probe probe, String hostName, InetSocketAddress target,
+                                                Proxy proxy, int timeOutMs) {
+        return circuitBreaker.probe(circuitKey(probe, target, proxy), timeOutMs,
+                () -> measured(probeEngine.probe(probe, hostName, target, proxy, timeOutMs), proxy != null));
+    }
+
+    // "tcp 93.184.216.34:80 via 1.2.3.4:1080", the host name does not matter to the target
+    private static String circuitKey(Probe probe, InetSocketAddress target, Proxy proxy) {
+        String key = probe.name() + ' ' + target.getAddress().getHostAddress() + ':' + target.getPort();
+        if (proxy == null)
+            return key;
+        InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+        return key + " via " + proxyAddress.getHostString() + ':' + proxyAddress.getPort();
+    }
+
+    // completes on the selector thread, recording is a few array increments
+    private static CompletableFuture<ProbeResult> measured(CompletableFuture<ProbeResult> probe, boolean viaProxy) {
+        long start = System.nanoTime();
+        return probe.whenComplete((result, failure) -> {
+            (viaProxy ? proxyConnectTime : directConnectTime).recordSince(start);
+            boolean ok = result != null && result.isAvailable();
+            probeOutcomes[(viaProxy ? 2 : 0) + (ok ? 0 : 1)].increment();
+            if (result == null)
+                return;
+            for (ProbeResult.Phase phase : PHASES) {
+                long millis = result.getPhaseMillis(phase);
+                if (phaseTime[phase.ordinal()] != null && millis >= 0)
+                    phaseTime[phase.ordinal()].recordMillis(millis);
+            }
+        });
+    }
+
+    static boolean available(InetAddress addr, int timeOutMs) {
+        ProbeResult result = probe(addr, timeOutMs).join();
+        if (result.isAvailable()) {
+            logger.fine("Address " + addr.getHostAddress() + " available in " + result.getLatencyMillis() + " ms");
+        } else {
+            logger.fine("Unreachable address: " + addr.getHostAddress() + ": " + result.getError());
+        }
+        return result.isAvailable();
+    }
+
+    static boolean availableWithProxy(InetAddress addr, int timeOutMs, Proxy proxy) {
+        ProbeResult result = probeWithProxy(addr, timeOutMs, proxy).join();
+        if (result.isAvailable()) {
+            logger.fine("Address " + addr.getHostAddress() + " available via proxy@" + proxy.address().toString()
+                                                            + " in " + result.getLatencyMillis() + " ms");
+        } else {
+            logger.fine("Unreachable address " + addr.getHostAddress() + " via proxy@" + proxy.address().toString()
+                                                            + ": " + result.getError());
+        }
+        return result.isAvailable();
+    }
+
+    // probes the proxy itself by connecting through it to example.com
+    static CompletableFuture<ProbeResult> probeProxy(Proxy proxy, int timeOutMs) {
+        return probeWithProxy(examplePage, timeOutMs, proxy);
+    }
+
+    public static boolean checkProxy(String proxy) {
+        String[] ipPort = proxy.split(":");
+        if (ipPort.length != 2) {
+            logger.warning("Incorrect proxy string given: " + proxy);
+            return false;
+        }
+        return availableWithProxy(examplePage, CONNECTION_WAIT_MILLIS*2,
+                new Proxy(Proxy.Type.SOCKS, new InetSocketAddress(ipPort[0], Integer.parseInt(ipPort[1]) ))
+        );
+    }
+
+}
@@ -0,0 +1,81 @@
+package connectiontest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+// In-process CheckQueue: one blocking queue per worker, replies are handed over on the worker's thread
+public class LoopbackCheckQueue implements CheckQueue {
+    // put in every inbox on close, never published
+    private static final CheckJob CLOSED = new CheckJob(-1, CheckJob.Kind.QUICK, "", DownChecker.HEAD, 0, 0,
+                                                             Collections.emptyList(), Collections.emptyList(), 0);
+
+    private final Map<String, LinkedBlockingQueue<CheckJob>> inboxes = new LinkedHashMap<>();
+    private volatile Consumer<CheckReply> replyHandler = reply -> {};
+    private volatile boolean closed = false;
+
+    public LoopbackCheckQueue(List<String> workers) {
+        for (String worker : workers)
+            inboxes.put(worker, new LinkedBlockingQueue<>());
+    }
+
+    // "worker-0" .. "worker-<count - 1>"
+    public static List<String> workerNames(int count) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            names.add("worker-" + i);
+        return names;
+    }
+
+    @Override
+    public List<String> workers() {
+        return new ArrayList<>(inboxes.keySet());
+    }
+
+    @Override
+    public void publish(String worker, CheckJob job) {
+        if (!closed)
+            inboxOf(worker).add(job);
+    }
+
+    @Override
+    public CheckJob take(String worker) throws InterruptedException {
+        LinkedBlockingQueue<CheckJob> inbox = inboxOf(worker);
+        CheckJob job = inbox.take();
+        if (job == CLOSED) {
+            inbox.add(CLOSED); // for other threads taking from the same inbox
+            return null;
+        }
+        return job;
+    }
+
+    @Override
+    public void reply(CheckReply reply) {
+        replyHandler.accept(reply);
+    }
+
+    @Override
+    public void onReply(Consumer<CheckReply> handler) {
+        replyHandler = handler;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (LinkedBlockingQueue<CheckJob> inbox : inboxes.values()) {
+            inbox.clear();
+            inbox.add(CLOSED);
+        }
+    }
+
+    private LinkedBlockingQueue<CheckJob> inboxOf(String worker) {
+        LinkedBlockingQueue<CheckJob> inbox = inboxes.get(worker);
+        if (inbox == null)
+            throw new IllegalArgumentException("No such worker: " + worker);
+        return inbox;
+    }
+}
@@ -0,0 +1,102 @@
+package connectiontest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/*
+ * What ProbeEngine does with a connection once it has one: nothing for a plain TCP connect,
+ * a TLS handshake, an HTTP request or a DNS query over UDP. Probes are shared and stateless,
+ * everything about one attempt lives in the Exchange they open. Exchanges run on a selector
+ * thread, so they must never block.
+ */
+interface Probe {
+    enum Transport { TCP, UDP }
+
+    // methods http:// and https:// checks can send
+    String HEAD = "HEAD";
+    String GET = "GET";
+
+    // plain host names get a TCP connect, the port is only ever changed for local measurements
+    Probe TCP = new TcpProbe(Integer.getInteger("isdownbot.probePort", 80));
+    Probe TLS = new TlsProbe();
+    Probe HTTP = new HttpProbe(false, HEAD);
+    Probe HTTPS = new HttpProbe(true, HEAD);
+    // for servers answering HEAD with 405 or 501
+    Probe HTTP_GET = new HttpProbe(false, GET);
+    Probe HTTPS_GET = new HttpProbe(true, GET);
+    Probe DNS = new DnsProbe();
+
+    // by url scheme, null for urls without one
+    static Probe forScheme(String scheme) throws IllegalArgumentException {
+        if (scheme == null)
+            return TCP;
+        switch (scheme) {
+            case "tcp":
+                return TCP;
+            case "tls":
+                return TLS;
+            case "http":
+                return HTTP;
+            case "https":
+                return HTTPS;
+            case "dns":
+                return DNS;
+            default:
+                throw new IllegalArgumentException("Unsupported scheme " + scheme + "://, use tcp, tls, http, https or dns");
+        }
+    }
+
+    // by url scheme, http:// and https:// request the url's own path and query
+    static Probe forUrl(String url) throws IllegalArgumentException {
+        return forUrl(url, HEAD);
+    }
+
+    // httpMethod is HEAD or GET, the user's choice and never read from the url being checked
+    static Probe forUrl(String url, String httpMethod) throws IllegalArgumentException {
+        Probe probe = forScheme(HostParser.schemeOf(url));
+        if (GET.equals(httpMethod)) {
+            if (probe == HTTP)
+                probe = HTTP_GET;
+            else if (probe == HTTPS)
+                probe = HTTPS_GET;
+            else
+                throw new IllegalArgumentException("get is only for http:// and https:// urls");
+        } else if (!HEAD.equals(httpMethod)) {
+            throw new IllegalArgumentException("Unsupported method " + httpMethod + ", use HEAD or GET");
+        }
+        return (probe instanceof HttpProbe) ? ((HttpProbe) probe).forTarget(HostParser.requestTargetOf(url)) : probe;
+    }
+
+    // shown in reports and part of cache keys
+    String name();
+
+    int defaultPort();
+
+    Transport transport();
+
+    // hostName is what the user asked for (SNI, Host header), null when only the address is known;
+    // null result when connecting is all there is to the probe
+    Exchange open(String hostName, InetSocketAddress target) throws IOException;
+
+    interface Exchange {
+        int receiveBufferSize();
+
+        void start(Conversation conversation) throws IOException;
+
+        // received is ready for reading, bytes left in it are handed over again with the next ones
+        void onReceived(Conversation conversation, ByteBuffer received) throws IOException;
+    }
+
+    // the engine side of an exchange, calls after succeed or fail are ignored
+    interface Conversation {
+        void send(ByteBuffer data);
+
+        // ends the phase running since the previous one (or since connecting started)
+        void phaseDone(ProbeResult.Phase phase);
+
+        void succeed(String detail);
+
+        void fail(String reason);
+    }
+}
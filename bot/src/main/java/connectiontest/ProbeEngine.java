@@ -0,0 +1,450 @@
+package connectiontest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/*
+ * Non-blocking prober: a few selector loops own all in-flight probes,
+ * per-probe deadlines live in a hashed timer wheel, every channel is closed on completion.
+ * The engine connects (through a SOCKS proxy if asked) and hands the channel over to the
+ * Probe's exchange, timing every phase on the way.
+ * Futures are completed on the selector thread, so dependent stages must be cheap
+ * (or attached with the *Async variants).
+ */
+class ProbeEngine {
+    private static final long TICK_MILLIS = 10;
+    private static final int WHEEL_SIZE = 512;
+
+    private static final byte SOCKS_VERSION = 5;
+    private static final byte SOCKS_NO_AUTH = 0;
+    private static final byte SOCKS_CMD_CONNECT = 1;
+    private static final byte SOCKS_ATYP_IPV4 = 1;
+    private static final byte SOCKS_ATYP_DOMAIN = 3;
+    private static final byte SOCKS_ATYP_IPV6 = 4;
+
+    // failure reason of probes that ran out of time
+    static final String TIMED_OUT = "timed out";
+    // probe timeouts are clamped to this range, whatever the user stored: 0 would fail every probe at
+    // once and a huge one would keep a silent server's socket open for weeks
+    static final int MIN_TIMEOUT_MILLIS = 100;
+    static final int MAX_TIMEOUT_MILLIS = 30_000;
+
+    private static final Logger logger = Logger.getLogger(ProbeEngine.class.getName());
+
+    private final SelectorLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    ProbeEngine(int loopCount) {
+        loops = new SelectorLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new SelectorLoop("probe-selector-" + i);
+            loops[i].thread.start();
+        }
+    }
+
+    // proxy == null (or DIRECT) for direct connection, SOCKS proxies are negotiated by the engine
+    CompletableFuture<ProbeResult> connect(InetSocketAddress target, Proxy proxy, int timeOutMs) {
+        return probe(Probe.TCP, null, target, proxy, timeOutMs);
+    }
+
+    // hostName (may be null) is the name target was resolved from, for SNI and Host headers
+    CompletableFuture<ProbeResult> probe(Probe probe, String hostName, InetSocketAddress target,
+                                         Proxy proxy, int timeOutMs) {
+        if (proxy != null && proxy.type() == Proxy.Type.DIRECT)
+            proxy = null;
+        timeOutMs = clampTimeout(timeOutMs);
+        CompletableFuture<ProbeResult> result = new CompletableFuture<>();
+        if (proxy != null && proxy.type() != Proxy.Type.SOCKS) {
+            result.complete(ProbeResult.failure(target, proxy, 0, "unsupported proxy type " + proxy.type()));
+            return result;
+        }
+        if (target.isUnresolved()) {
+            result.complete(ProbeResult.failure(target, proxy, 0, "unresolved target"));
+            return result;
+        }
+        if (proxy != null && probe.transport() == Probe.Transport.UDP) {
+            result.complete(ProbeResult.failure(target, proxy, 0, "UDP probes can't go through SOCKS proxies"));
+            return result;
+        }
+        SelectorLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        loop.submit(new Attempt(loop, probe, hostName, target, proxy, timeOutMs, result));
+        return result;
+    }
+
+    static int clampTimeout(int timeOutMs) {
+        return Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, timeOutMs));
+    }
+
+    int inFlight() {
+        int total = 0;
+        for (SelectorLoop loop : loops)
+            total += loop.inFlight;
+        return total;
+    }
+
+    void shutdown() {
+        for (SelectorLoop loop : loops)
+            loop.shutdown();
+    }
+
+    private enum State { CONNECTING, SOCKS_GREETING, SOCKS_CONNECT, SOCKS_BOUND_HEADER, SOCKS_BOUND_ADDRESS, EXCHANGING, DONE }
+
+    private static final class Attempt implements Probe.Conversation {
+        private final SelectorLoop loop;
+        private final Probe probe;
+        private final String hostName;
+        private final InetSocketAddress target;
+        private final Proxy proxy;
+        private final int timeOutMs;
+        private final CompletableFuture<ProbeResult> result;
+        private final long[] phaseMillis = ProbeResult.noPhases();
+        private long startNanos;
+        private long phaseStartNanos;
+        private SelectableChannel channel;
+        private ByteChannel io; // the same channel
+        private SelectionKey key;
+        private TimerWheel.Timeout<Attempt> timeout;
+        private State state = State.CONNECTING;
+        private Probe.Exchange exchange;
+        private final Queue<ByteBuffer> out = new ArrayDeque<>();
+        private ByteBuffer in;
+        private ProbeResult succeeded; // waiting for the last bytes to go out
+
+        private Attempt(SelectorLoop loop, Probe probe, String hostName, InetSocketAddress target, Proxy proxy,
+                        int timeOutMs, CompletableFuture<ProbeResult> result) {
+            this.loop = loop;
+            this.probe = probe;
+            this.hostName = hostName;
+            this.target = target;
+            this.proxy = proxy;
+            this.timeOutMs = timeOutMs;
+            this.result = result;
+        }
+
+        private long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public void send(ByteBuffer data) {
+            if (state == State.DONE)
+                return;
+            out.add(data);
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        @Override
+        public void phaseDone(ProbeResult.Phase phase) {
+            long now = System.nanoTime();
+            phaseMillis[phase.ordinal()] = TimeUnit.NANOSECONDS.toMillis(now - phaseStartNanos);
+            phaseStartNanos = now;
+        }
+
+        // closing with unsent bytes (a TLS Finished or close_notify) would look like an aborted handshake
+        @Override
+        public void succeed(String detail) {
+            if (state == State.DONE || succeeded != null)
+                return;
+            ProbeResult result = ProbeResult.success(target, proxy, elapsedMillis(), detail, phaseMillis);
+            if (out.isEmpty())
+                loop.finish(this, result);
+            else
+                succeeded = result;
+        }
+
+        @Override
+        public void fail(String reason) {
+            loop.finish(this, ProbeResult.failure(target, proxy, elapsedMillis(), reason, phaseMillis));
+        }
+    }
+
+    private final class SelectorLoop implements Runnable {
+        private final Thread thread;
+        private final Selector selector;
+        private final Queue<Attempt> pending = new ConcurrentLinkedQueue<>();
+        private final TimerWheel<Attempt> deadlines;
+        private volatile boolean running = true;
+        private volatile int inFlight = 0;
+
+        private SelectorLoop(String name) {
+            try {
+                selector = Selector.open();
+            } catch (IOException openFailed) {
+                throw new UncheckedIOException("Failed to open probe selector", openFailed);
+            }
+            deadlines = new TimerWheel<>(TICK_MILLIS, WHEEL_SIZE, System.currentTimeMillis());
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        private void submit(Attempt attempt) {
+            pending.add(attempt);
+            selector.wakeup();
+        }
+
+        private void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    long now = System.currentTimeMillis();
+                    if (deadlines.isEmpty())
+                        selector.select();
+                    else
+                        selector.select(deadlines.millisToNextTick(now));
+
+                    registerPending();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        handle(key);
+                    }
+                    selector.selectedKeys().clear();
+                    deadlines.advance(System.currentTimeMillis(), attempt -> attempt.fail(TIMED_OUT));
+                    inFlight = deadlines.size();
+                }
+            } catch (IOException | ClosedSelectorException selectFailed) {
+                logger.severe(thread.getName() + " stopped: " + selectFailed.getMessage());
+            } finally {
+                running = false;
+                Attempt attempt;
+                while ((attempt = pending.poll()) != null)
+                    attempt.fail("probe engine stopped");
+                for (SelectionKey key : selector.keys())
+                    ((Attempt) key.attachment()).fail("probe engine stopped");
+                try {
+                    selector.close();
+                } catch (IOException closeFailed) {
+                    logger.warning(thread.getName() + " selector closing failed: " + closeFailed.getMessage());
+                }
+            }
+        }
+
+        private void registerPending() {
+            Attempt attempt;
+            while ((attempt = pending.poll()) != null) {
+                attempt.startNanos = System.nanoTime();
+                attempt.phaseStartNanos = attempt.startNanos;
+                attempt.timeout = deadlines.schedule(attempt, System.currentTimeMillis() + attempt.timeOutMs);
+                try {
+                    attempt.exchange = attempt.probe.open(attempt.hostName, attempt.target);
+                    if (attempt.probe.transport() == Probe.Transport.UDP) {
+                        // connecting a datagram channel only fixes the peer, ICMP errors then surface on read
+                        DatagramChannel datagrams = DatagramChannel.open();
+                        open(attempt, datagrams);
+                        datagrams.connect(attempt.target);
+                        startExchange(attempt);
+                        continue;
+                    }
+                    SocketChannel socket = SocketChannel.open();
+                    open(attempt, socket);
+                    SocketAddress connectTo = attempt.proxy == null ? attempt.target : resolvedProxyAddress(attempt.proxy);
+                    if (socket.connect(connectTo))
+                        onConnected(attempt);
+                    else
+                        attempt.key.interestOps(SelectionKey.OP_CONNECT);
+                } catch (IOException | RuntimeException connectFailed) {
+                    attempt.fail(describe(connectFailed));
+                }
+            }
+        }
+
+        private <C extends SelectableChannel & ByteChannel> void open(Attempt attempt, C channel) throws IOException {
+            attempt.channel = channel;
+            attempt.io = channel;
+            channel.configureBlocking(false);
+            attempt.key = channel.register(selector, 0, attempt);
+        }
+
+        private void handle(SelectionKey key) {
+            Attempt attempt = (Attempt) key.attachment();
+            try {
+                if (!key.isValid())
+                    return;
+                if (key.isConnectable()) {
+                    if (((SocketChannel) attempt.channel).finishConnect())
+                        onConnected(attempt);
+                } else if (key.isWritable()) {
+                    ByteBuffer next;
+                    while ((next = attempt.out.peek()) != null) {
+                        attempt.io.write(next);
+                        if (next.hasRemaining())
+                            return; // socket buffer is full, wait for the next OP_WRITE
+                        attempt.out.poll();
+                    }
+                    if (attempt.succeeded != null)
+                        finish(attempt, attempt.succeeded);
+                    else
+                        key.interestOps(SelectionKey.OP_READ);
+                } else if (key.isReadable()) {
+                    int read = attempt.io.read(attempt.in);
+                    if (read == -1) {
+                        attempt.fail(attempt.state == State.EXCHANGING ? "connection closed by server"
+                                                                       : "proxy closed connection");
+                    } else if (attempt.state == State.EXCHANGING) {
+                        onReceived(attempt);
+                    } else if (!attempt.in.hasRemaining()) {
+                        attempt.in.flip();
+                        if (attempt.state == State.SOCKS_BOUND_HEADER || attempt.state == State.SOCKS_BOUND_ADDRESS)
+                            onBoundAddress(attempt);
+                        else
+                            onReply(attempt);
+                    }
+                }
+            } catch (IOException | RuntimeException probeFailed) {
+                attempt.fail(describe(probeFailed));
+            }
+        }
+
+        private void onConnected(Attempt attempt) throws IOException {
+            if (attempt.proxy == null) {
+                startExchange(attempt);
+                return;
+            }
+            attempt.state = State.SOCKS_GREETING;
+            exchange(attempt, new byte[]{SOCKS_VERSION, 1, SOCKS_NO_AUTH}, 2);
+        }
+
+        private void onReply(Attempt attempt) throws IOException {
+            if (attempt.in.get(0) != SOCKS_VERSION) {
+                attempt.fail("not a SOCKSv5 proxy");
+                return;
+            }
+            if (attempt.state == State.SOCKS_GREETING) {
+                if (attempt.in.get(1) != SOCKS_NO_AUTH) {
+                    attempt.fail("proxy requires authentication");
+                    return;
+                }
+                attempt.state = State.SOCKS_CONNECT;
+                exchange(attempt, socksConnectRequest(attempt.target), 2);
+            } else if (attempt.state == State.SOCKS_CONNECT) {
+                if (attempt.in.get(1) != 0) {
+                    attempt.fail("proxy connect failed, reply code " + attempt.in.get(1));
+                    return;
+                }
+                // the rest of the reply (bound address) is irrelevant for reachability,
+                // but has to be read past before the server's own bytes
+                if (attempt.exchange == null) {
+                    startExchange(attempt);
+                    return;
+                }
+                attempt.state = State.SOCKS_BOUND_HEADER;
+                receive(attempt, 3); // reserved byte, address type, first address byte
+            }
+        }
+
+        private void onBoundAddress(Attempt attempt) throws IOException {
+            if (attempt.state == State.SOCKS_BOUND_ADDRESS) {
+                startExchange(attempt);
+                return;
+            }
+            int addressType = attempt.in.get(1);
+            // address and port minus the byte already read
+            int rest = (addressType == SOCKS_ATYP_IPV4) ? 4 + 2 - 1
+                    : (addressType == SOCKS_ATYP_IPV6) ? 16 + 2 - 1
+                    : (addressType == SOCKS_ATYP_DOMAIN) ? (attempt.in.get(2) & 0xFF) + 2
+                    : -1;
+            if (rest == -1) {
+                attempt.fail("malformed proxy reply");
+                return;
+            }
+            attempt.state = State.SOCKS_BOUND_ADDRESS;
+            receive(attempt, rest);
+        }
+
+        // the tunnel is up, the probe takes over
+        private void startExchange(Attempt attempt) throws IOException {
+            if (attempt.probe.transport() == Probe.Transport.TCP)
+                attempt.phaseDone(ProbeResult.Phase.CONNECT);
+            if (attempt.exchange == null) {
+                attempt.succeed(null);
+                return;
+            }
+            attempt.state = State.EXCHANGING;
+            attempt.in = ByteBuffer.allocate(attempt.exchange.receiveBufferSize());
+            attempt.key.interestOps(SelectionKey.OP_READ);
+            attempt.exchange.start(attempt);
+        }
+
+        private void onReceived(Attempt attempt) throws IOException {
+            attempt.in.flip();
+            attempt.exchange.onReceived(attempt, attempt.in);
+            if (attempt.state == State.DONE)
+                return;
+            attempt.in.compact();
+            if (!attempt.in.hasRemaining())
+                attempt.fail("answer does not fit the receive buffer");
+        }
+
+        private void exchange(Attempt attempt, byte[] request, int expectedReplyBytes) {
+            attempt.out.add(ByteBuffer.wrap(request));
+            attempt.in = ByteBuffer.allocate(expectedReplyBytes);
+            attempt.key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private void receive(Attempt attempt, int expectedBytes) {
+            attempt.in = ByteBuffer.allocate(expectedBytes);
+            attempt.key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void finish(Attempt attempt, ProbeResult result) {
+            if (attempt.state == State.DONE)
+                return;
+            attempt.state = State.DONE;
+            if (attempt.timeout != null)
+                deadlines.cancel(attempt.timeout);
+            if (attempt.key != null)
+                attempt.key.cancel();
+            if (attempt.channel != null) {
+                try {
+                    attempt.channel.close();
+                } catch (IOException closeFailed) {
+                    logger.warning("Failed to close probe channel to " + attempt.target + ": " + closeFailed.getMessage());
+                }
+            }
+            attempt.result.complete(result);
+        }
+    }
+
+    // some exceptions (PortUnreachableException) carry no message
+    private static String describe(Exception failure) {
+        return failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName();
+    }
+
+    private static InetSocketAddress resolvedProxyAddress(Proxy proxy) {
+        InetSocketAddress address = (InetSocketAddress) proxy.address();
+        // proxies are stored unresolved ip:port pairs, resolving an ip literal does not hit DNS
+        return address.isUnresolved() ? new InetSocketAddress(address.getHostString(), address.getPort()) : address;
+    }
+
+    private static byte[] socksConnectRequest(InetSocketAddress target) {
+        byte[] ip = target.getAddress().getAddress();
+        ByteBuffer request = ByteBuffer.allocate(6 + ip.length);
+        request.put(SOCKS_VERSION).put(SOCKS_CMD_CONNECT).put((byte) 0)
+                .put(target.getAddress() instanceof Inet4Address ? SOCKS_ATYP_IPV4 : SOCKS_ATYP_IPV6)
+                .put(ip)
+                .putShort((short) target.getPort());
+        return request.array();
+    }
+}
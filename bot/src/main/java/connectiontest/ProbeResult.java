@@ -0,0 +1,139 @@
+package connectiontest;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+
+// Outcome of a single reachability probe, immutable
+public final class ProbeResult {
+    // stages of a probe in the order they happen, each timed from the end of the previous one
+    public enum Phase { DNS, CONNECT, TLS, FIRST_BYTE }
+
+    private static final long NOT_MEASURED = -1;
+
+    private final InetSocketAddress target;
+    private final Proxy proxy;
+    private final boolean available;
+    private final long latencyMillis;
+    private final String error;
+    private final String detail;
+    private final long[] phaseMillis;
+    private final long ageMillis; // -1 unless replayed from a circuit breaker
+
+    private ProbeResult(InetSocketAddress target, Proxy proxy, boolean available, long latencyMillis,
+                        String error, String detail, long[] phaseMillis) {
+        this(target, proxy, available, latencyMillis, error, detail, phaseMillis, NOT_MEASURED);
+    }
+
+    private ProbeResult(InetSocketAddress target, Proxy proxy, boolean available, long latencyMillis,
+                        String error, String detail, long[] phaseMillis, long ageMillis) {
+        this.target = target;
+        this.proxy = proxy;
+        this.available = available;
+        this.latencyMillis = latencyMillis;
+        this.error = error;
+        this.detail = detail;
+        this.phaseMillis = phaseMillis;
+        this.ageMillis = ageMillis;
+    }
+
+    static ProbeResult success(InetSocketAddress target, Proxy proxy, long latencyMillis) {
+        return success(target, proxy, latencyMillis, null, noPhases());
+    }
+
+    static ProbeResult success(InetSocketAddress target, Proxy proxy, long latencyMillis,
+                               String detail, long[] phaseMillis) {
+        return new ProbeResult(target, proxy, true, latencyMillis, null, detail, phaseMillis);
+    }
+
+    static ProbeResult failure(InetSocketAddress target, Proxy proxy, long latencyMillis, String error) {
+        return failure(target, proxy, latencyMillis, error, noPhases());
+    }
+
+    static ProbeResult failure(InetSocketAddress target, Proxy proxy, long latencyMillis,
+                               String error, long[] phaseMillis) {
+        return new ProbeResult(target, proxy, false, latencyMillis, error, null, phaseMillis);
+    }
+
+    static long[] noPhases() {
+        long[] phases = new long[Phase.values().length];
+        Arrays.fill(phases, NOT_MEASURED);
+        return phases;
+    }
+
+    // the same result with the name resolution that preceded the probe
+    ProbeResult withDnsMillis(long dnsMillis) {
+        long[] phases = phaseMillis.clone();
+        phases[Phase.DNS.ordinal()] = dnsMillis;
+        return new ProbeResult(target, proxy, available, latencyMillis, error, detail, phases, ageMillis);
+    }
+
+    // the same result served again instead of probing, ageMillis after it was measured
+    ProbeResult asCached(long ageMillis) {
+        return new ProbeResult(target, proxy, available, latencyMillis, error, detail, phaseMillis, ageMillis);
+    }
+
+    public InetSocketAddress getTarget() {
+        return target;
+    }
+
+    // null for direct probes
+    public Proxy getProxy() {
+        return proxy;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    // time from connect() to the end of the probe (success or failure), DNS not included
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    // null for successful probes
+    public String getError() {
+        return error;
+    }
+
+    // what the server answered ("HTTP 200", "TLSv1.3"), null if the probe only connects
+    public String getDetail() {
+        return detail;
+    }
+
+    // true if no probe was sent, the target failed too often recently
+    public boolean isCached() {
+        return ageMillis != NOT_MEASURED;
+    }
+
+    // how long ago a cached result was measured, -1 for fresh ones
+    public long getAgeMillis() {
+        return ageMillis;
+    }
+
+    // -1 if the probe did not get that far or has no such phase
+    public long getPhaseMillis(Phase phase) {
+        return phaseMillis[phase.ordinal()];
+    }
+
+    // "dns 3 ms, connect 20 ms, tls 41 ms", empty if nothing was measured
+    public String describePhases() {
+        StringBuilder phases = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            long millis = phaseMillis[phase.ordinal()];
+            if (millis == NOT_MEASURED)
+                continue;
+            if (phases.length() > 0)
+                phases.append(", ");
+            phases.append(phase.name().toLowerCase().replace('_', ' ')).append(' ').append(millis).append(" ms");
+        }
+        return phases.toString();
+    }
+
+    @Override
+    public String toString() {
+        return target + (proxy == null ? "" : " via " + proxy.address()) + ": "
+                + (available ? "OK" + (detail == null ? "" : " " + detail) : "FAILED (" + error + ")")
+                + ", " + latencyMillis + " ms" + (isCached() ? " (cached, " + ageMillis + " ms old)" : "");
+    }
+}
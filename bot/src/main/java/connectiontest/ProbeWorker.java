@@ -0,0 +1,123 @@
+package connectiontest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/*
+ * Runs the check jobs of one worker inbox of a CheckQueue, each on a virtual thread, and sends the
+ * reports back, fullCheck progress included. At most maxConcurrentJobs run at once, the rest
+ * wait in the queue. A worker has its own CheckCoalescer; the front end sends it every check of
+ * the hosts it owns, so that is where their results are worth keeping. Jobs carry everything the
+ * database would say, a worker only needs the queue and the network.
+ */
+public class ProbeWorker {
+    // the CheckQueue implementation main() connects through
+    private static final String CHECK_QUEUE = System.getProperty("isdownbot.checkQueue");
+    private static final long CHECK_RESULT_CACHE_MILLIS = Long.getLong("isdownbot.checkCacheMillis", 3000);
+    private static final long FULL_CHECK_CACHE_MILLIS = Long.getLong("isdownbot.fullCheckCacheMillis", 15_000);
+    private static final int JOBS_PER_WORKER = Integer.getInteger("isdownbot.jobsPerWorker", 64);
+
+    private static final Logger logger = Logger.getLogger(ProbeWorker.class.getName());
+
+    private final String name;
+    private final CheckQueue queue;
+    private final ProxyHealthMonitor proxyHealth;
+    private final CheckCoalescer coalescer;
+    private final Semaphore running;
+    private final ExecutorService jobs = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread taker;
+
+    // proxyHealth may be null, proxies are then tried in the user's order and never skipped
+    public ProbeWorker(String name, CheckQueue queue, ProxyHealthMonitor proxyHealth,
+                       long checkCacheMillis, long fullCheckCacheMillis, int maxConcurrentJobs) {
+        this.name = name;
+        this.queue = queue;
+        this.proxyHealth = proxyHealth;
+        this.coalescer = new CheckCoalescer(checkCacheMillis, fullCheckCacheMillis);
+        this.running = new Semaphore(maxConcurrentJobs);
+        taker = new Thread(this::takeJobs, "probe-" + name);
+        taker.setDaemon(true);
+    }
+
+    /*
+     * A worker process serving the named inboxes of a CheckQueue that reaches the front end, e.g. one
+     * backed by a message broker:
+     * java -Disdownbot.checkQueue=<CheckQueue class> connectiontest.ProbeWorker worker-0 worker-1
+     * The class needs a public constructor taking the List<String> of worker names.
+     */
+    public static void main(String[] args) throws ReflectiveOperationException, InterruptedException {
+        if (CHECK_QUEUE == null || args.length == 0) {
+            System.err.println("Usage: java -Disdownbot.checkQueue=<CheckQueue class> connectiontest.ProbeWorker <worker>...");
+            System.exit(2);
+        }
+        List<String> names = Arrays.asList(args);
+        CheckQueue queue = (CheckQueue) Class.forName(CHECK_QUEUE).getConstructor(List.class).newInstance(names);
+        Runtime.getRuntime().addShutdownHook(new Thread(queue::close, "probe-worker-shutdown"));
+        run(queue, names);
+    }
+
+    // serves the workers' inboxes until the queue is closed
+    public static void run(CheckQueue queue, List<String> names) throws InterruptedException {
+        List<ProbeWorker> workers = new ArrayList<>(names.size());
+        for (String name : names) {
+            ProbeWorker worker = new ProbeWorker(name, queue, null, CHECK_RESULT_CACHE_MILLIS,
+                                                 FULL_CHECK_CACHE_MILLIS, JOBS_PER_WORKER);
+            worker.start();
+            workers.add(worker);
+        }
+        logger.info("Serving " + names + " through " + queue.getClass().getSimpleName());
+        for (ProbeWorker worker : workers)
+            worker.taker.join();
+    }
+
+    public void start() {
+        taker.start();
+    }
+
+    // jobs already running are abandoned, the front end times them out
+    public void shutdown() {
+        taker.interrupt();
+        jobs.shutdownNow();
+    }
+
+    private void takeJobs() {
+        try {
+            while (true) {
+                running.acquire();
+                CheckJob job = queue.take(name);
+                if (job == null)
+                    break;
+                jobs.execute(() -> {
+                    try {
+                        queue.reply(CheckReply.done(job.getId(), check(job)));
+                    } finally {
+                        running.release();
+                    }
+                });
+            }
+        } catch (InterruptedException shutdown) {
+            // stopped by shutdown()
+        }
+        logger.info(name + " stopped");
+    }
+
+    private String check(CheckJob job) {
+        try {
+            DownChecker checker = new DownChecker(job, coalescer, proxyHealth);
+            if (job.getKind() == CheckJob.Kind.QUICK)
+                return checker.quickCheck();
+            return checker.fullCheck((address, proxy, result, report) ->
+                    queue.reply(CheckReply.progress(job.getId(), report)));
+        } catch (IllegalArgumentException badUrl) {
+            return badUrl.getMessage();
+        } catch (RuntimeException checkFailed) {
+            logger.severe(name + " failed job " + job.getId() + " (" + job.getUrl() + "): " + checkFailed);
+            return "Check failed, try again later";
+        }
+    }
+}
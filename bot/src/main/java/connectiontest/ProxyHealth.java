@@ -0,0 +1,53 @@
+package connectiontest;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Exponentially-weighted health of one proxy: success rate over recent probes and
+ * connect latency over recent successful ones.
+ */
+final class ProxyHealth {
+    private static final double ALPHA = 0.3;
+    private static final double DEAD_SUCCESS_RATE = 0.2;
+    private static final int DEAD_AFTER_FAILURES = 3;
+
+    private double successRate = 1.0;
+    private double latencyMillis = 0;
+    private int consecutiveFailures = 0;
+    private int samples = 0;
+    private long lastCheckedAt = 0;
+
+    synchronized void record(boolean ok, long latency, long checkedAt) {
+        if (samples == 0) {
+            successRate = ok ? 1.0 : 0.0;
+            latencyMillis = ok ? latency : 0;
+        } else {
+            successRate = ALPHA * (ok ? 1.0 : 0.0) + (1 - ALPHA) * successRate;
+            if (ok)
+                latencyMillis = (latencyMillis == 0) ? latency : ALPHA * latency + (1 - ALPHA) * latencyMillis;
+        }
+        consecutiveFailures = ok ? 0 : consecutiveFailures + 1;
+        samples++;
+        lastCheckedAt = Math.max(lastCheckedAt, checkedAt);
+    }
+
+    synchronized boolean isDead() {
+        return consecutiveFailures >= DEAD_AFTER_FAILURES && successRate < DEAD_SUCCESS_RATE;
+    }
+
+    // higher is better: reliable and fast proxies first
+    synchronized double score() {
+        return successRate / (1.0 + latencyMillis / 1000.0);
+    }
+
+    synchronized String describe(long now) {
+        StringBuilder description = new StringBuilder();
+        description.append(Math.round(successRate * 100)).append("% ok");
+        if (latencyMillis > 0)
+            description.append(", ~").append(Math.round(latencyMillis)).append(" ms");
+        if (lastCheckedAt > 0)
+            description.append(", checked ").append(TimeUnit.MILLISECONDS.toMinutes(now - lastCheckedAt))
+                    .append(" min ago");
+        return description.toString();
+    }
+}
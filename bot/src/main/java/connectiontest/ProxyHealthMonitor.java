@@ -0,0 +1,119 @@
+package connectiontest;
+
+import database.DBHandler;
+import database.ProxyStatus;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static cfg.Configuration.CONNECTION_WAIT_MILLIS;
+
+/*
+ * Periodically probes every distinct proxy of every user (each proxy once per round, at most
+ * PROBES_PER_SECOND), keeps exponentially-weighted health per proxy and stores the latest
+ * status in the database so it survives restarts.
+ */
+public class ProxyHealthMonitor {
+    private static final long ROUND_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long INITIAL_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final int PROBES_PER_SECOND = 20;
+
+    private static final Logger logger = Logger.getLogger(ProxyHealthMonitor.class.getName());
+
+    private final DBHandler dbConnection;
+    private final ConcurrentHashMap<String, ProxyHealth> health = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public ProxyHealthMonitor(DBHandler dbConnection) {
+        this.dbConnection = dbConnection;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "proxy-health-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        for (ProxyStatus status : dbConnection.getAllProxies()) {
+            if (status.getLastOk() != null)
+                healthOf(status.getAddress())
+                        .record(status.getLastOk(), status.getLastLatencyMillis(), status.getLastChecked());
+        }
+        logger.info("Loaded last known health of " + health.size() + " proxies");
+        scheduler.schedule(this::runRound, INITIAL_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    boolean isDead(Proxy proxy) {
+        ProxyHealth proxyHealth = health.get(key(proxy));
+        return proxyHealth != null && proxyHealth.isDead();
+    }
+
+    // null if the proxy was never checked
+    String describe(Proxy proxy) {
+        ProxyHealth proxyHealth = health.get(key(proxy));
+        return proxyHealth == null ? null : proxyHealth.describe(System.currentTimeMillis());
+    }
+
+    // best scored proxies first, never checked ones keep the user's order behind them, dead ones last
+    List<Proxy> prioritize(List<Proxy> proxies) {
+        List<Proxy> ordered = new ArrayList<>(proxies);
+        ordered.sort(Comparator.comparingInt((Proxy proxy) -> isDead(proxy) ? 1 : 0)
+                .thenComparingDouble(proxy -> {
+                    ProxyHealth proxyHealth = health.get(key(proxy));
+                    return proxyHealth == null ? 0.0 : -proxyHealth.score();
+                }));
+        return ordered;
+    }
+
+    // on-demand checks report their outcomes too, a successful connect through the proxy proves it alive
+    void recordSuccess(Proxy proxy, long latencyMillis) {
+        healthOf((InetSocketAddress) proxy.address()).record(true, latencyMillis, System.currentTimeMillis());
+    }
+
+    private void runRound() {
+        List<ProxyStatus> proxies = dbConnection.getAllProxies();
+        long spacingMillis = 1000 / PROBES_PER_SECOND;
+        for (int i = 0; i < proxies.size(); i++) {
+            InetSocketAddress address = proxies.get(i).getAddress();
+            scheduler.schedule(() -> probe(address), i * spacingMillis, TimeUnit.MILLISECONDS);
+        }
+        // the next round starts once this one has been sent out
+        scheduler.schedule(this::runRound, proxies.size() * spacingMillis + ROUND_INTERVAL_MILLIS,
+                                                                                    TimeUnit.MILLISECONDS);
+        logger.fine("Health round started for " + proxies.size() + " proxies");
+    }
+
+    private void probe(InetSocketAddress address) {
+        Proxy proxy = new Proxy(Proxy.Type.SOCKS, address);
+        IsDownCheckHelper.probeProxy(proxy, CONNECTION_WAIT_MILLIS * 2)
+                // off the selector thread, storing the result touches the database
+                .thenAcceptAsync(result -> {
+                    healthOf(address).record(result.isAvailable(), result.getLatencyMillis(), System.currentTimeMillis());
+                    dbConnection.setProxyHealth(address, result.isAvailable(), result.getLatencyMillis());
+                }, scheduler);
+    }
+
+    private ProxyHealth healthOf(InetSocketAddress address) {
+        return health.computeIfAbsent(key(address), k -> new ProxyHealth());
+    }
+
+    private static String key(Proxy proxy) {
+        return key((InetSocketAddress) proxy.address());
+    }
+
+    private static String key(InetSocketAddress address) {
+        return address.getHostString() + ':' + address.getPort();
+    }
+}
@@ -0,0 +1,24 @@
+package connectiontest;
+
+import java.net.InetAddress;
+
+// network part of a quickCheck, the same for every user checking the host at the same time
+final class QuickCheckOutcome {
+    private final InetAddress address;
+    private final ProbeResult probe;
+
+    QuickCheckOutcome(InetAddress address, ProbeResult probe) {
+        this.address = address;
+        this.probe = probe;
+    }
+
+    // null if the host name did not resolve
+    InetAddress getAddress() {
+        return address;
+    }
+
+    // null if the host name did not resolve
+    ProbeResult getProbe() {
+        return probe;
+    }
+}
@@ -0,0 +1,88 @@
+package connectiontest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * Runs at most one loader per key at a time: concurrent callers with the same key wait for
+ * the running load, and a completed value is reused for resultTtlMillis afterwards.
+ * Failed loads are shared with the callers already waiting but never cached.
+ */
+class SingleFlight<K, V> {
+    private static final long SWEEP_INTERVAL_MILLIS = 10_000;
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> value = new CompletableFuture<>();
+        private volatile long completedAt = Long.MAX_VALUE; // running flights never expire
+    }
+
+    private final long resultTtlMillis;
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+    SingleFlight(long resultTtlMillis) {
+        this.resultTtlMillis = resultTtlMillis;
+    }
+
+    V get(K key, Supplier<V> loader) {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        while (true) {
+            Flight<V> current = flights.get(key);
+            if (current != null && isUsable(current, now))
+                return await(current);
+
+            Flight<V> ours = new Flight<>();
+            boolean won = (current == null)
+                    ? flights.putIfAbsent(key, ours) == null
+                    : flights.replace(key, current, ours);
+            if (!won)
+                continue; // somebody else started a flight, join theirs
+
+            try {
+                V value = loader.get();
+                ours.completedAt = System.currentTimeMillis();
+                ours.value.complete(value);
+                if (resultTtlMillis <= 0)
+                    flights.remove(key, ours);
+                return value;
+            } catch (Throwable loadFailed) {
+                // Errors too, a flight left running would make every later caller wait forever
+                flights.remove(key, ours);
+                ours.value.completeExceptionally(loadFailed);
+                throw loadFailed;
+            }
+        }
+    }
+
+    int size() {
+        return flights.size();
+    }
+
+    private boolean isUsable(Flight<V> flight, long now) {
+        return !flight.value.isDone() || now - flight.completedAt < resultTtlMillis;
+    }
+
+    private static <V> V await(Flight<V> flight) {
+        try {
+            return flight.value.join();
+        } catch (CompletionException loadFailed) {
+            if (loadFailed.getCause() instanceof RuntimeException)
+                throw (RuntimeException) loadFailed.getCause();
+            if (loadFailed.getCause() instanceof Error)
+                throw (Error) loadFailed.getCause();
+            throw loadFailed;
+        }
+    }
+
+    // drops expired results so keys that are never asked again do not pile up
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MILLIS || !lastSweep.compareAndSet(last, now))
+            return;
+        flights.entrySet().removeIf(entry -> !isUsable(entry.getValue(), now));
+    }
+}
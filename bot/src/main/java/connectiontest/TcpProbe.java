@@ -0,0 +1,32 @@
+package connectiontest;
+
+import java.net.InetSocketAddress;
+
+// the server accepting a connection is all that is checked
+final class TcpProbe implements Probe {
+    private final int defaultPort;
+
+    TcpProbe(int defaultPort) {
+        this.defaultPort = defaultPort;
+    }
+
+    @Override
+    public String name() {
+        return "tcp";
+    }
+
+    @Override
+    public int defaultPort() {
+        return defaultPort;
+    }
+
+    @Override
+    public Transport transport() {
+        return Transport.TCP;
+    }
+
+    @Override
+    public Exchange open(String hostName, InetSocketAddress target) {
+        return null;
+    }
+}
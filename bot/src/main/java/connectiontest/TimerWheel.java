@@ -0,0 +1,104 @@
+package connectiontest;
+
+import java.util.function.Consumer;
+
+/*
+ * Hashed timer wheel: O(1) schedule/cancel, expiry cost proportional to the number of
+ * ticks elapsed plus the number of expired timers.
+ * NOT thread-safe, meant to be driven by a single owner thread (e.g. a selector loop).
+ */
+class TimerWheel<T> {
+    private final long tickMillis;
+    private final int mask;
+    private final Timeout<T>[] buckets;
+    private long currentTick;
+    private int size = 0;
+
+    static final class Timeout<T> {
+        private final T task;
+        private final long deadlineTick;
+        private Timeout<T> prev, next;
+        private int bucket = -1; // -1 when not scheduled
+
+        private Timeout(T task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        T task() {
+            return task;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimerWheel(long tickMillis, int wheelSize, long nowMillis) {
+        if (Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.buckets = (Timeout<T>[]) new Timeout[wheelSize];
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    Timeout<T> schedule(T task, long deadlineMillis) {
+        // round up so a timer never fires before its deadline
+        long deadlineTick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        Timeout<T> timeout = new Timeout<>(task, deadlineTick);
+        int bucket = (int) (deadlineTick & mask);
+        timeout.bucket = bucket;
+        timeout.next = buckets[bucket];
+        if (timeout.next != null)
+            timeout.next.prev = timeout;
+        buckets[bucket] = timeout;
+        size++;
+        return timeout;
+    }
+
+    void cancel(Timeout<T> timeout) {
+        if (timeout.bucket == -1)
+            return;
+        if (timeout.prev != null)
+            timeout.prev.next = timeout.next;
+        else
+            buckets[timeout.bucket] = timeout.next;
+        if (timeout.next != null)
+            timeout.next.prev = timeout.prev;
+        timeout.prev = timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+    }
+
+    // fires every timer whose deadline is at or before nowMillis
+    void advance(long nowMillis, Consumer<T> onExpired) {
+        long targetTick = nowMillis / tickMillis;
+        // after a full revolution every bucket has been visited, skip the idle laps
+        if (targetTick - currentTick > mask + 1)
+            currentTick = targetTick - mask - 1;
+        while (currentTick < targetTick) {
+            currentTick++;
+            int bucket = (int) (currentTick & mask);
+            Timeout<T> timeout = buckets[bucket];
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                if (timeout.deadlineTick <= targetTick) {
+                    cancel(timeout);
+                    onExpired.accept(timeout.task);
+                }
+                timeout = next;
+            }
+        }
+    }
+
+    // millis until the next tick boundary, for select() timeouts
+    long millisToNextTick(long nowMillis) {
+        return tickMillis - nowMillis % tickMillis;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,51 @@
+package connectiontest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+// a completed handshake with a valid certificate for the host name, nothing is sent after it
+final class TlsProbe implements Probe {
+    private static final int TLS_PORT = 443;
+
+    @Override
+    public String name() {
+        return "tls";
+    }
+
+    @Override
+    public int defaultPort() {
+        return TLS_PORT;
+    }
+
+    @Override
+    public Transport transport() {
+        return Transport.TCP;
+    }
+
+    @Override
+    public Exchange open(String hostName, InetSocketAddress target) throws IOException {
+        TlsSession tls = new TlsSession(hostName, target);
+        return new Exchange() {
+            @Override
+            public int receiveBufferSize() {
+                return tls.packetBufferSize();
+            }
+
+            @Override
+            public void start(Conversation conversation) throws IOException {
+                tls.start(conversation);
+            }
+
+            @Override
+            public void onReceived(Conversation conversation, ByteBuffer received) throws IOException {
+                if (tls.onReceived(conversation, received)) {
+                    conversation.phaseDone(ProbeResult.Phase.TLS);
+                    String protocol = tls.protocol();
+                    tls.close(conversation);
+                    conversation.succeed(protocol);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,136 @@
+package connectiontest;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+
+/*
+ * Client side of TLS over a Probe.Conversation: received records go through an SSLEngine,
+ * whatever it produces is sent back. The certificate is verified against the host name (also sent
+ * as SNI), so an expired or mismatched certificate fails the probe just like a closed port.
+ * Delegated tasks (certificate validation) run inline on the selector thread, they take
+ * well under a millisecond next to the round trips of a handshake.
+ */
+final class TlsSession {
+    private static final ByteBuffer NOTHING = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private final ByteBuffer plain; // decrypted application data, in write mode
+    private boolean handshaken = false;
+
+    TlsSession(String hostName, InetSocketAddress target) throws IOException {
+        String peer = (hostName != null) ? hostName : target.getHostString();
+        try {
+            engine = SSLContext.getDefault().createSSLEngine(peer, target.getPort());
+        } catch (NoSuchAlgorithmException noTls) {
+            throw new IOException("TLS is not available", noTls);
+        }
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        // SNI is for names only, literal addresses are checked against the certificate as they are
+        if (hostName != null && HostParser.parseIPv4(hostName) == HostParser.INVALID_IPV4 && !HostParser.isIPv6(hostName))
+            parameters.setServerNames(Collections.singletonList(new SNIHostName(hostName)));
+        engine.setSSLParameters(parameters);
+        plain = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    // enough room for the largest record the peer may send
+    int packetBufferSize() {
+        return engine.getSession().getPacketBufferSize();
+    }
+
+    String protocol() {
+        return engine.getSession().getProtocol();
+    }
+
+    void start(Probe.Conversation conversation) throws IOException {
+        engine.beginHandshake();
+        handshake(conversation, NOTHING);
+    }
+
+    // feeds received records in, false while the handshake is still going
+    boolean onReceived(Probe.Conversation conversation, ByteBuffer received) throws IOException {
+        if (!handshaken) {
+            handshake(conversation, received);
+            if (!handshaken)
+                return false;
+        }
+        while (received.hasRemaining()) {
+            SSLEngineResult result = engine.unwrap(received, plain);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)
+                throw new SSLException("answer does not fit the buffer");
+            if (result.getStatus() != SSLEngineResult.Status.OK)
+                break; // partial record or close_notify
+            runDelegatedTasks(); // TLS 1.3 session tickets arrive after the handshake
+        }
+        return true;
+    }
+
+    // decrypted bytes in write mode, the caller flips and compacts it
+    ByteBuffer plain() {
+        return plain;
+    }
+
+    void send(Probe.Conversation conversation, ByteBuffer data) throws IOException {
+        while (data.hasRemaining())
+            wrapAndSend(conversation, data);
+    }
+
+    // close_notify, so servers don't log every probe as an aborted handshake
+    void close(Probe.Conversation conversation) throws IOException {
+        engine.closeOutbound();
+        while (!engine.isOutboundDone())
+            wrapAndSend(conversation, NOTHING);
+    }
+
+    private void handshake(Probe.Conversation conversation, ByteBuffer received) throws IOException {
+        while (!handshaken) {
+            SSLEngineResult result;
+            switch (engine.getHandshakeStatus()) {
+                case NEED_WRAP:
+                    result = wrapAndSend(conversation, NOTHING);
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    result = engine.unwrap(received, plain);
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW)
+                        return; // the rest of the record is still on its way
+                    break;
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    continue;
+                default:
+                    handshaken = true;
+                    return;
+            }
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                throw new SSLException("connection closed during the TLS handshake");
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED)
+                handshaken = true;
+        }
+    }
+
+    private SSLEngineResult wrapAndSend(Probe.Conversation conversation, ByteBuffer data) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(packetBufferSize());
+        SSLEngineResult result = engine.wrap(data, record);
+        record.flip();
+        if (record.hasRemaining())
+            conversation.send(record);
+        return result;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null)
+            task.run();
+    }
+}
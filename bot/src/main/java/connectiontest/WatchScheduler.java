@@ -0,0 +1,377 @@
+package connectiontest;
+
+import database.DBHandler;
+import database.WatchEntry;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import static cfg.Configuration.CONNECTION_WAIT_MILLIS;
+
+/*
+ * Periodic checks of watched hosts for all users. Watches are grouped by host, so a host is probed
+ * once per the shortest interval any of its subscribers asked for, however many subscribers it has.
+ * All state belongs to one scheduler thread driving a TimerWheel, other threads hand it commands;
+ * probes run on virtual threads and report back to it. Intervals are jittered by +-JITTER so hosts
+ * watched since the same moment drift apart, and a state change is only reported once a quick
+ * recheck confirms it. Watch counts are capped per user and in total.
+ */
+public class WatchScheduler {
+    public static final int MIN_INTERVAL_SECONDS = 60;
+    public static final int MAX_INTERVAL_SECONDS = 24 * 60 * 60;
+    public static final int MAX_WATCHES_PER_USER = Integer.getInteger("isdownbot.maxWatchesPerUser", 20);
+    private static final int MAX_WATCHES = Integer.getInteger("isdownbot.maxWatches", 200_000);
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 4096; // one revolution is a bit over an hour
+    private static final double JITTER = 0.1;
+    private static final long FIRST_PROBE_SPREAD_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long RECHECK_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    private static final int CONFIRMATIONS = 2;
+    private static final int MAX_CONCURRENT_PROBES = 256;
+    // how often a caller waiting for the owner thread checks that it is still there
+    private static final long OWNER_CHECK_MILLIS = 1000;
+
+    private static final Logger logger = Logger.getLogger(WatchScheduler.class.getName());
+
+    public enum Result { ADDED, UPDATED, REMOVED, NOT_FOUND, LIMIT_REACHED, INVALID_HOST, UNSUPPORTED_PROBE, FAILED }
+
+    public interface Listener {
+        // probe is null if the host could not be resolved
+        void onStateChanged(long userId, String host, boolean up, ProbeResult probe);
+    }
+
+    private static final class HostWatch {
+        final String host;
+        final Map<Long, Integer> subscribers = new HashMap<>(4); // userId -> interval seconds
+        int intervalSeconds = MAX_INTERVAL_SECONDS;             // shortest subscriber interval
+        Boolean up = null;                                      // null until the first probe
+        int disagreements = 0;                                  // probes contradicting 'up' in a row
+        TimerWheel.Timeout<HostWatch> timeout = null;           // null while probing
+        boolean probing = false;
+
+        HostWatch(String host) {
+            this.host = host;
+        }
+    }
+
+    private final DBHandler dbConnection;
+    private final Listener listener;
+    // owner thread state
+    private final TimerWheel<HostWatch> wheel = new TimerWheel<>(TICK_MILLIS, WHEEL_SIZE, System.currentTimeMillis());
+    private final Map<String, HostWatch> hosts = new HashMap<>();
+    private final Map<Long, Set<String>> userHosts = new HashMap<>();
+    private int watchCount = 0;
+
+    private final LinkedBlockingQueue<Runnable> commands = new LinkedBlockingQueue<>();
+    private final Semaphore probePermits = new Semaphore(MAX_CONCURRENT_PROBES);
+    private final ExecutorService probers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread owner;
+
+    public WatchScheduler(DBHandler dbConnection, Listener listener) {
+        this.dbConnection = dbConnection;
+        this.listener = listener;
+        owner = new Thread(this::run, "watch-scheduler");
+        owner.setDaemon(true);
+    }
+
+    public void start() {
+        List<WatchEntry> stored = dbConnection.getAllWatches();
+        commands.add(() -> {
+            for (WatchEntry entry : stored)
+                subscribe(entry.getUserId(), entry.getHost(), entry.getIntervalSeconds(), true);
+            logger.info("Loaded " + watchCount + " watches of " + hosts.size() + " hosts");
+        });
+        owner.start();
+    }
+
+    public void shutdown() {
+        owner.interrupt();
+        probers.shutdownNow();
+    }
+
+    // adds the watch or changes its interval, intervalSeconds must be within MIN/MAX_INTERVAL_SECONDS.
+    // Watches are plain TCP connects to the default port, urls asking for another probe or port are refused
+    public Result watch(long userId, String url, int intervalSeconds) {
+        String host;
+        try {
+            host = IsDownCheckHelper.parseUrl(url);
+            if (Probe.forUrl(url) != Probe.TCP)
+                return Result.UNSUPPORTED_PROBE;
+        } catch (IllegalArgumentException badUrl) {
+            return Result.INVALID_HOST;
+        }
+        int port = HostParser.portOf(url);
+        if (port != -1 && port != Probe.TCP.defaultPort())
+            return Result.UNSUPPORTED_PROBE;
+        Result result = call(() -> subscribe(userId, host, intervalSeconds, false));
+        if (result != Result.ADDED && result != Result.UPDATED)
+            return result;
+        if (!dbConnection.addWatch(userId, host, intervalSeconds)) {
+            // a watch that would not survive a restart is not worth keeping
+            if (result == Result.ADDED)
+                call(() -> unsubscribe(userId, host));
+            return Result.FAILED;
+        }
+        return result;
+    }
+
+    public Result unwatch(long userId, String url) {
+        String host;
+        try {
+            host = IsDownCheckHelper.parseUrl(url);
+        } catch (IllegalArgumentException badUrl) {
+            return Result.INVALID_HOST;
+        }
+        Result result = call(() -> unsubscribe(userId, host));
+        if (result == Result.REMOVED && !dbConnection.removeWatch(userId, host))
+            return Result.FAILED;
+        return result;
+    }
+
+    // "host every N min, state" lines
+    public List<String> watchesOf(long userId) {
+        return call(() -> {
+            Set<String> own = userHosts.get(userId);
+            if (own == null)
+                return Collections.emptyList();
+            List<String> descriptions = new ArrayList<>(own.size());
+            for (String host : own) {
+                HostWatch watch = hosts.get(host);
+                String state = (watch.up == null) ? "not checked yet" : (watch.up ? "online" : "offline");
+                descriptions.add(host + " every " + describeInterval(watch.subscribers.get(userId)) + ", " + state);
+            }
+            Collections.sort(descriptions);
+            return descriptions;
+        });
+    }
+
+    public static String describeInterval(int seconds) {
+        if (seconds % 3600 == 0)
+            return seconds / 3600 + " h";
+        if (seconds % 60 == 0)
+            return seconds / 60 + " min";
+        return seconds + " s";
+    }
+
+    // runs on the owner thread, the caller waits; fails instead of waiting forever once the owner is gone
+    private <T> T call(Callable<T> command) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        commands.add(() -> {
+            try {
+                result.complete(command.call());
+            } catch (Exception commandFailed) {
+                result.completeExceptionally(commandFailed);
+            }
+        });
+        try {
+            while (true) {
+                try {
+                    return result.get(OWNER_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException stillQueued) {
+                    if (owner.getState() == Thread.State.TERMINATED && !result.isDone())
+                        throw new IllegalStateException("Watch scheduler is not running");
+                }
+            }
+        } catch (ExecutionException commandFailed) {
+            throw new CompletionException(commandFailed.getCause());
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the watch scheduler");
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Runnable command = commands.poll(wheel.millisToNextTick(System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                while (command != null) {
+                    try {
+                        command.run();
+                    } catch (RuntimeException commandFailed) {
+                        logger.severe("Watch scheduler command failed: " + commandFailed);
+                    }
+                    command = commands.poll();
+                }
+                try {
+                    wheel.advance(System.currentTimeMillis(), this::probe);
+                } catch (RuntimeException advanceFailed) {
+                    logger.severe("Watch scheduler tick failed: " + advanceFailed);
+                }
+            }
+        } catch (InterruptedException shutdown) {
+            logger.fine("Watch scheduler stopped");
+        }
+    }
+
+    private Result subscribe(long userId, String host, int intervalSeconds, boolean loading) {
+        HostWatch watch = hosts.get(host);
+        boolean existing = watch != null && watch.subscribers.containsKey(userId);
+        Set<String> own = userHosts.get(userId);
+        if (!existing && ((own != null && own.size() >= MAX_WATCHES_PER_USER) || watchCount >= MAX_WATCHES))
+            return Result.LIMIT_REACHED;
+
+        if (watch == null) {
+            watch = new HostWatch(host);
+            hosts.put(host, watch);
+        }
+        watch.subscribers.put(userId, intervalSeconds);
+        if (!existing) {
+            userHosts.computeIfAbsent(userId, id -> new HashSet<>()).add(host);
+            watchCount++;
+        }
+        int previousInterval = watch.intervalSeconds;
+        watch.intervalSeconds = shortestInterval(watch);
+
+        long now = System.currentTimeMillis();
+        if (watch.timeout == null && !watch.probing) {
+            // a fresh watch gets its baseline soon, on startup the whole interval spreads the load
+            long spreadMillis = loading
+                    ? TimeUnit.SECONDS.toMillis(watch.intervalSeconds)
+                    : Math.min(FIRST_PROBE_SPREAD_MILLIS, TimeUnit.SECONDS.toMillis(watch.intervalSeconds));
+            watch.timeout = wheel.schedule(watch, now + ThreadLocalRandom.current().nextLong(spreadMillis + 1));
+        } else if (watch.timeout != null && watch.intervalSeconds < previousInterval) {
+            // don't make the new subscriber wait for the old, longer interval
+            wheel.cancel(watch.timeout);
+            watch.timeout = wheel.schedule(watch, now + jittered(watch.intervalSeconds));
+        }
+        return existing ? Result.UPDATED : Result.ADDED;
+    }
+
+    private Result unsubscribe(long userId, String host) {
+        HostWatch watch = hosts.get(host);
+        if (watch == null || watch.subscribers.remove(userId) == null)
+            return Result.NOT_FOUND;
+        Set<String> own = userHosts.get(userId);
+        own.remove(host);
+        if (own.isEmpty())
+            userHosts.remove(userId);
+        watchCount--;
+
+        if (watch.subscribers.isEmpty()) {
+            // a probe still running for it is dropped when it reports back
+            if (watch.timeout != null)
+                wheel.cancel(watch.timeout);
+            hosts.remove(host);
+        } else {
+            watch.intervalSeconds = shortestInterval(watch);
+        }
+        return Result.REMOVED;
+    }
+
+    private static int shortestInterval(HostWatch watch) {
+        int shortest = MAX_INTERVAL_SECONDS;
+        for (int interval : watch.subscribers.values())
+            shortest = Math.min(shortest, interval);
+        return shortest;
+    }
+
+    private static long jittered(int intervalSeconds) {
+        double factor = 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return (long) (TimeUnit.SECONDS.toMillis(intervalSeconds) * factor);
+    }
+
+    // timer expired on the owner thread
+    private void probe(HostWatch watch) {
+        watch.timeout = null;
+        watch.probing = true;
+        try {
+            startProbe(watch);
+        } catch (RejectedExecutionException shuttingDown) {
+            // onProbed would never come, try again next interval in case it was not a shutdown
+            watch.probing = false;
+            watch.timeout = wheel.schedule(watch, System.currentTimeMillis() + jittered(watch.intervalSeconds));
+        }
+    }
+
+    private void startProbe(HostWatch watch) {
+        probers.execute(() -> {
+            ProbeResult result = null;
+            boolean checked = false;
+            try {
+                probePermits.acquire();
+                try {
+                    result = check(watch.host);
+                    checked = true;
+                } finally {
+                    probePermits.release();
+                }
+            } catch (InterruptedException shutdown) {
+                // the scheduler is stopping, onProbed below does no harm
+            } catch (RuntimeException checkFailed) {
+                logger.warning("Probing watched " + watch.host + " failed: " + checkFailed);
+            } finally {
+                // always handed back, a watch left probing would never be scheduled again
+                ProbeResult probed = result;
+                boolean completed = checked;
+                commands.add(() -> onProbed(watch, probed, completed));
+            }
+        });
+    }
+
+    // null if the host does not resolve
+    private static ProbeResult check(String host) {
+        InetAddress[] addresses;
+        try {
+            addresses = IsDownCheckHelper.getByHostName(host);
+        } catch (UnknownHostException dnsLookupFailed) {
+            return null;
+        }
+        return IsDownCheckHelper.probe(addresses[0], CONNECTION_WAIT_MILLIS).join();
+    }
+
+    // completed is false if the check itself failed, the state is kept and the host probed again next interval
+    private void onProbed(HostWatch watch, ProbeResult result, boolean completed) {
+        watch.probing = false;
+        if (hosts.get(watch.host) != watch)
+            return; // unwatched while probing
+        if (!completed) {
+            watch.timeout = wheel.schedule(watch, System.currentTimeMillis() + jittered(watch.intervalSeconds));
+            return;
+        }
+        boolean up = result != null && result.isAvailable();
+        long now = System.currentTimeMillis();
+
+        if (watch.up == null || up == watch.up) {
+            watch.up = up;
+            watch.disagreements = 0;
+        } else if (++watch.disagreements < CONFIRMATIONS) {
+            // one failed connect is not an outage yet, look again soon
+            watch.timeout = wheel.schedule(watch, now + RECHECK_MILLIS);
+            return;
+        } else {
+            watch.up = up;
+            watch.disagreements = 0;
+            logger.fine(watch.host + " went " + (up ? "up" : "down") + ", notifying "
+                                                    + watch.subscribers.size() + " subscribers");
+            for (long userId : watch.subscribers.keySet()) {
+                try {
+                    listener.onStateChanged(userId, watch.host, up, result);
+                } catch (RuntimeException notifyFailed) {
+                    logger.warning("Failed to notify " + userId + " about " + watch.host + ": " + notifyFailed);
+                }
+            }
+        }
+        watch.timeout = wheel.schedule(watch, now + jittered(watch.intervalSeconds));
+    }
+}
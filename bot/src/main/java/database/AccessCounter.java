@@ -0,0 +1,143 @@
+package database;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Sliding-window counter of distinct users per host.
+ * Every host keeps a ring of per-minute buckets, a user is counted in the bucket of their latest
+ * access only, so the sum of the buckets inside a window is the number of distinct users.
+ * Sums of the tracked windows are maintained incrementally and answered in O(1).
+ */
+class AccessCounter {
+    private static final long HOUR_MINUTES = 60;
+    private static final long EVICTION_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final int maxWindowMinutes;
+    private final int[] trackedWindows;
+    private final ConcurrentHashMap<String, HostCounter> hosts = new ConcurrentHashMap<>();
+    private final AtomicLong lastEviction = new AtomicLong(System.currentTimeMillis());
+
+    AccessCounter(int maxWindowMinutes, int... trackedWindows) {
+        this.maxWindowMinutes = maxWindowMinutes;
+        this.trackedWindows = trackedWindows.clone();
+        for (int window : trackedWindows) {
+            if (window <= 0 || window > maxWindowMinutes)
+                throw new IllegalArgumentException("Tracked window out of range: " + window);
+        }
+    }
+
+    void record(String host, long userId, long timeMillis) {
+        evictIdleIfDue(timeMillis);
+        int minute = toMinute(timeMillis);
+        // recorded inside compute so evictIdle can't drop the counter between lookup and record
+        hosts.compute(host, (h, counter) -> {
+            HostCounter recorded = (counter == null) ? new HostCounter() : counter;
+            recorded.record(userId, minute);
+            return recorded;
+        });
+    }
+
+    long distinctUsers(String host, long minutes, long nowMillis) {
+        HostCounter counter = hosts.get(host);
+        if (counter == null)
+            return 0;
+        return counter.distinctUsers((int) Math.min(minutes, maxWindowMinutes), toMinute(nowMillis));
+    }
+
+    // forgets hosts nobody has checked within the longest window
+    void evictIdle(long nowMillis) {
+        int now = toMinute(nowMillis);
+        // computeIfPresent and the compute in record() exclude each other per host, no access gets lost
+        for (String host : hosts.keySet())
+            hosts.computeIfPresent(host, (h, counter) -> counter.isIdle(now) ? null : counter);
+    }
+
+    private void evictIdleIfDue(long nowMillis) {
+        long last = lastEviction.get();
+        if (nowMillis - last >= EVICTION_INTERVAL_MILLIS && lastEviction.compareAndSet(last, nowMillis))
+            evictIdle(nowMillis);
+    }
+
+    int hostCount() {
+        return hosts.size();
+    }
+
+    private static int toMinute(long timeMillis) {
+        return (int) TimeUnit.MILLISECONDS.toMinutes(timeMillis);
+    }
+
+    private final class HostCounter {
+        private final int[] buckets = new int[maxWindowMinutes]; // users whose latest access is in that minute
+        private final long[] windowSums = new long[trackedWindows.length];
+        private final LongIntMap lastSeen = new LongIntMap(); // userId -> minute of the latest access
+        private int currentMinute = 0;
+
+        synchronized void record(long userId, int minute) {
+            advance(minute);
+            if (minute <= currentMinute - maxWindowMinutes)
+                return; // too old to matter
+            int previous = lastSeen.get(userId);
+            if (previous >= minute)
+                return; // already counted at a later minute
+            if (previous > currentMinute - maxWindowMinutes)
+                adjust(previous, -1);
+            adjust(minute, +1);
+            lastSeen.put(userId, minute);
+        }
+
+        synchronized long distinctUsers(int minutes, int now) {
+            advance(now);
+            for (int i = 0; i < trackedWindows.length; i++) {
+                if (trackedWindows[i] == minutes)
+                    return windowSums[i];
+            }
+            long sum = 0;
+            for (int m = currentMinute - minutes + 1; m <= currentMinute; m++)
+                sum += buckets[index(m)];
+            return sum;
+        }
+
+        synchronized boolean isIdle(int now) {
+            advance(now);
+            return lastSeen.size() == 0;
+        }
+
+        private void adjust(int minute, int delta) {
+            buckets[index(minute)] += delta;
+            for (int i = 0; i < trackedWindows.length; i++) {
+                if (minute > currentMinute - trackedWindows[i])
+                    windowSums[i] += delta;
+            }
+        }
+
+        private void advance(int now) {
+            if (now <= currentMinute)
+                return;
+            if (now - currentMinute >= maxWindowMinutes) {
+                // the whole ring expired
+                Arrays.fill(buckets, 0);
+                Arrays.fill(windowSums, 0);
+            } else {
+                for (int m = currentMinute + 1; m <= now; m++) {
+                    // minute m - window leaves every window; for the longest one it is the slot being reused
+                    for (int i = 0; i < trackedWindows.length; i++)
+                        windowSums[i] -= buckets[index(m - trackedWindows[i])];
+                    buckets[index(m)] = 0;
+                }
+            }
+            boolean hourPassed = now / HOUR_MINUTES != currentMinute / HOUR_MINUTES;
+            currentMinute = now;
+            if (hourPassed) {
+                int oldest = currentMinute - maxWindowMinutes;
+                lastSeen.retainValues(minute -> minute > oldest);
+            }
+        }
+
+        private int index(int minute) {
+            return Math.floorMod(minute, maxWindowMinutes);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package database;
+
+import metrics.Metrics;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/*
+ * Write-behind queue for URL access rows: request threads only enqueue, a background flusher
+ * inserts the rows in batched transactions once BATCH_SIZE rows are pending or FLUSH_INTERVAL_MILLIS
+ * passed. The queue is bounded, when the disk stalls producers wait up to OFFER_TIMEOUT_MILLIS
+ * and then the row is dropped (the in-memory counters still see it).
+ */
+class AccessLogWriter implements AutoCloseable {
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int BATCH_SIZE = 500;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long OFFER_TIMEOUT_MILLIS = 50;
+    private static final long RETRY_BACKOFF_MILLIS = 500;
+    private static final int MAX_FLUSH_ATTEMPTS = 5;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+    private static final Logger logger = Logger.getLogger(AccessLogWriter.class.getName());
+
+    private static final class Access {
+        private final String url;
+        private final long userId;
+        private final long timeStamp;
+
+        private Access(String url, long userId, long timeStamp) {
+            this.url = url;
+            this.userId = userId;
+            this.timeStamp = timeStamp;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final String insertString;
+    private final BlockingQueue<Access> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread flusher;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed = false;
+
+    AccessLogWriter(ConnectionPool pool, String insertString) {
+        this.pool = pool;
+        this.insertString = insertString;
+        Metrics.gauge("isdownbot_access_log_queued", "URL accesses waiting to be written", queue::size);
+        Metrics.gauge("isdownbot_access_log_dropped", "URL accesses dropped because the queue was full", dropped::get);
+        flusher = new Thread(this::flushLoop, "access-log-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    boolean append(String url, long userId, long timeStamp) {
+        if (closed)
+            return false;
+        try {
+            if (queue.offer(new Access(url, userId, timeStamp), OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                return true;
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        long droppedTotal = dropped.incrementAndGet();
+        logger.warning("Access log queue is full, dropped " + url + " access (" + droppedTotal + " dropped so far)");
+        return false;
+    }
+
+    int pending() {
+        return queue.size();
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    private void flushLoop() {
+        List<Access> batch = new ArrayList<>(BATCH_SIZE);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Access first = queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                long flushAt = System.currentTimeMillis() + FLUSH_INTERVAL_MILLIS;
+                // wait for a full batch, but not longer than the flush interval
+                while (batch.size() < BATCH_SIZE && !closed) {
+                    queue.drainTo(batch, BATCH_SIZE - batch.size());
+                    long wait = flushAt - System.currentTimeMillis();
+                    if (batch.size() >= BATCH_SIZE || wait <= 0)
+                        break;
+                    Access next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+                queue.drainTo(batch, BATCH_SIZE - batch.size());
+                flush(batch);
+                batch.clear();
+            } catch (InterruptedException interrupted) {
+                // nothing interrupts the flusher on purpose, keep draining until closed
+            }
+        }
+        logger.info("Access log writer stopped");
+    }
+
+    private void flush(List<Access> batch) throws InterruptedException {
+        for (int attempt = 1; attempt <= MAX_FLUSH_ATTEMPTS; attempt++) {
+            try {
+                pool.transaction("appendAccesses", connection -> {
+                    PreparedStatement insertQuery = connection.prepare(insertString);
+                    for (Access access : batch) {
+                        insertQuery.setString(1, access.url);
+                        insertQuery.setLong(2, access.userId);
+                        insertQuery.setLong(3, access.timeStamp);
+                        insertQuery.addBatch();
+                    }
+                    return insertQuery.executeBatch();
+                });
+                logger.fine("Flushed " + batch.size() + " url accesses");
+                return;
+            } catch (SQLException flushFailed) {
+                logger.warning("Failed to flush " + batch.size() + " url accesses (attempt " + attempt + "): "
+                                                                                + flushFailed.getMessage());
+                // producers block on the full queue meanwhile, that is the backpressure
+                Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+            }
+        }
+        dropped.addAndGet(batch.size());
+        logger.severe("Dropped " + batch.size() + " url accesses after " + MAX_FLUSH_ATTEMPTS + " failed flushes");
+    }
+
+    // stops accepting new rows and waits until everything queued is written
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flusher.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive())
+            logger.severe("Access log writer did not drain in " + CLOSE_TIMEOUT_MILLIS + " ms, "
+                                                                    + queue.size() + " accesses lost");
+    }
+}
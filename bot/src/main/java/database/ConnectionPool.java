@@ -0,0 +1,156 @@
+package database;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/*
+ * SQLite connections of one database file in WAL mode: a single writer connection used by one
+ * thread at a time (SQLite allows only one writer anyway) and a few reader connections which,
+ * thanks to WAL, never wait for the writer.
+ * Every call is named after the operation it serves and timed, waiting for a connection included.
+ */
+class ConnectionPool implements AutoCloseable {
+
+    @FunctionalInterface
+    interface SqlWork<T> {
+        T run(PooledConnection connection) throws SQLException;
+    }
+
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+    private final String fileName;
+    private final PooledConnection writer;
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private final BlockingQueue<PooledConnection> readers;
+    private final List<PooledConnection> allConnections = new ArrayList<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> timings = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> errors = new ConcurrentHashMap<>();
+
+    ConnectionPool(String fileName, int readerCount) throws SQLException {
+        this.fileName = fileName;
+        this.readers = new ArrayBlockingQueue<>(readerCount);
+        try {
+            writer = open();
+            try (Statement walMode = writer.connection().createStatement()) {
+                // persistent for the database file, readers opened afterwards see it too
+                walMode.execute("PRAGMA journal_mode=WAL");
+            }
+            for (int i = 0; i < readerCount; i++) {
+                readers.add(open());
+            }
+        } catch (SQLException openFailed) {
+            close();
+            throw openFailed;
+        }
+    }
+
+    <T> T read(String operation, SqlWork<T> work) throws SQLException {
+        return timed(operation, () -> {
+            PooledConnection reader;
+            try {
+                reader = readers.take();
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a " + fileName + " connection", interrupted);
+            }
+            try {
+                return work.run(reader);
+            } finally {
+                readers.add(reader);
+            }
+        });
+    }
+
+    <T> T write(String operation, SqlWork<T> work) throws SQLException {
+        return timed(operation, () -> onWriter(work));
+    }
+
+    // runs the work in one transaction on the writer connection, rolls back if it throws
+    <T> T transaction(String operation, SqlWork<T> work) throws SQLException {
+        return timed(operation, () -> onWriter(connection -> {
+            Connection jdbc = connection.connection();
+            jdbc.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                jdbc.commit();
+                return result;
+            } catch (SQLException | RuntimeException failed) {
+                jdbc.rollback();
+                throw failed;
+            } finally {
+                jdbc.setAutoCommit(true);
+            }
+        }));
+    }
+
+    private <T> T onWriter(SqlWork<T> work) throws SQLException {
+        writerLock.lock();
+        try {
+            return work.run(writer);
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    private <T> T timed(String operation, SqlCall<T> call) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } catch (SQLException | RuntimeException failed) {
+            errors.computeIfAbsent(operation, op -> Metrics.counter("isdownbot_sqlite_errors_total",
+                    "Failed SQLite operations", "operation", op)).increment();
+            throw failed;
+        } finally {
+            timings.computeIfAbsent(operation, op -> Metrics.histogram("isdownbot_sqlite_seconds",
+                    "SQLite operation latency including the wait for a connection", "operation", op))
+                    .recordSince(start);
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + fileName);
+        PooledConnection pooled = new PooledConnection(connection);
+        synchronized (allConnections) {
+            allConnections.add(pooled);
+        }
+        try (Statement pragmas = connection.createStatement()) {
+            pragmas.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MILLIS);
+            // with WAL, NORMAL only risks the last transactions on power loss, never corruption
+            pragmas.execute("PRAGMA synchronous=NORMAL");
+        }
+        return pooled;
+    }
+
+    @Override
+    public void close() {
+        synchronized (allConnections) {
+            for (PooledConnection connection : allConnections) {
+                try {
+                    connection.close();
+                } catch (SQLException closeFailed) {
+                    logger.severe(fileName + " closing failed: " + closeFailed.getMessage());
+                }
+            }
+            allConnections.clear();
+        }
+    }
+}
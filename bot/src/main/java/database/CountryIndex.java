@@ -0,0 +1,84 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * ip2nation ranges in sorted primitive arrays: range i starts at rangeStarts[i] (unsigned IPv4)
+ * and belongs to countryNames[rangeCountries[i]]. Immutable, lookups are a binary search.
+ */
+final class CountryIndex {
+    static final String UNKNOWN_COUNTRY = "Unknown";
+
+    //http://www.ip2nation.com/ip2nation/Sample_Scripts/Output_Full_Country_Name
+    private static final String selectRangesString = "SELECT i.ip, c.country FROM ip2nation i, ip2nationCountries c"
+                                                   + " WHERE c.code = i.country ORDER BY i.ip";
+
+    private final int[] rangeStarts;
+    private final short[] rangeCountries;
+    private final String[] countryNames;
+
+    private CountryIndex(int[] rangeStarts, short[] rangeCountries, String[] countryNames) {
+        this.rangeStarts = rangeStarts;
+        this.rangeCountries = rangeCountries;
+        this.countryNames = countryNames;
+    }
+
+    static CountryIndex empty() {
+        return new CountryIndex(new int[0], new short[0], new String[0]);
+    }
+
+    static CountryIndex load(Connection ip2countryDb) throws SQLException {
+        int[] starts = new int[1 << 16];
+        short[] countries = new short[starts.length];
+        Map<String, Short> countryIds = new HashMap<>();
+        int size = 0;
+        try (Statement selectRanges = ip2countryDb.createStatement();
+             ResultSet ranges = selectRanges.executeQuery(selectRangesString)) {
+            while (ranges.next()) {
+                if (size == starts.length) {
+                    starts = Arrays.copyOf(starts, size * 2);
+                    countries = Arrays.copyOf(countries, size * 2);
+                }
+                String country = ranges.getString(2);
+                Short id = countryIds.get(country);
+                if (id == null) {
+                    id = (short) countryIds.size();
+                    countryIds.put(country, id);
+                }
+                starts[size] = (int) ranges.getLong(1);
+                countries[size] = id;
+                size++;
+            }
+        }
+        String[] names = new String[countryIds.size()];
+        countryIds.forEach((name, id) -> names[id] = name);
+        return new CountryIndex(Arrays.copyOf(starts, size), Arrays.copyOf(countries, size), names);
+    }
+
+    // country of the last range starting strictly below ipValue, same as the original SQL lookup
+    String lookUp(long ipValue) {
+        int low = 0;
+        int high = rangeStarts.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if ((rangeStarts[mid] & 0xFFFFFFFFL) < ipValue) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found == -1 ? UNKNOWN_COUNTRY : countryNames[rangeCountries[found]];
+    }
+
+    int size() {
+        return rangeStarts.length;
+    }
+}
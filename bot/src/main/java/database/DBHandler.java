@@ -0,0 +1,459 @@
+package database;
+
+import connectiontest.IsDownCheckHelper;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static cfg.Configuration.*;
+
+public class DBHandler {
+    private final String botDbFilename;
+    private final String countryDbFilename;
+    private ConnectionPool botDb = null;
+    private AccessLogWriter accessLog = null;
+    private UrlTableMaintenance maintenance = null;
+    private volatile CountryIndex countryIndex = CountryIndex.empty();
+    private static final Logger logger = Logger.getLogger(DBHandler.class.getName());
+
+    // longest reporting window and the windows DownChecker reports (2h for quickCheck, 24h for fullCheck)
+    private static final int LONGEST_WINDOW_MINUTES = 24 * 60;
+    private final ConcurrentHashMap<Long, List<Proxy>> userProxies = new ConcurrentHashMap<>();
+    private final AccessCounter accessCounter = new AccessCounter(LONGEST_WINDOW_MINUTES, 2 * 60, LONGEST_WINDOW_MINUTES);
+
+    private static final String USER_PROXY_TABLE = "user_proxies";
+    private static final String selectProxyString = "SELECT host, port FROM " + USER_PROXY_TABLE + " WHERE userId=?"
+                                                  + " ORDER BY rowid";
+    private static final String insertProxyString = "INSERT OR IGNORE INTO " + USER_PROXY_TABLE + " (userId, host, port)"
+                                                  + " VALUES (?, ?, ?)";
+    private static final String deleteProxyString = "DELETE FROM " + USER_PROXY_TABLE + " WHERE userId=?";
+    // one row per distinct proxy, the status of the most recently checked copy
+    private static final String selectAllProxiesString = "SELECT host, port, lastStatus, lastLatency, MAX(lastChecked) AS checked"
+                                                       + " FROM " + USER_PROXY_TABLE + " GROUP BY host, port";
+    private static final String updateProxyHealthString = "UPDATE " + USER_PROXY_TABLE
+                                                        + " SET lastStatus=?, lastLatency=?, lastChecked=?"
+                                                        + " WHERE host=? AND port=?";
+    private static final String WATCH_TABLE = "watches";
+    private static final String upsertWatchString = "INSERT OR REPLACE INTO " + WATCH_TABLE
+                                                  + " (userId, host, intervalSeconds) VALUES (?, ?, ?)";
+    private static final String deleteWatchString = "DELETE FROM " + WATCH_TABLE + " WHERE userId=? AND host=?";
+    private static final String selectAllWatchesString = "SELECT userId, host, intervalSeconds FROM " + WATCH_TABLE;
+    // proxies used to be kept in USER_TABLE.proxyList as a comma-joined "ip:port" string
+    private static final String selectLegacyProxiesString = "SELECT userId, proxyList FROM " + USER_TABLE
+                                                          + " WHERE proxyList IS NOT NULL AND proxyList != ''";
+    private static final String clearLegacyProxiesString = "UPDATE " + USER_TABLE + " SET proxyList=''"
+                                                         + " WHERE proxyList IS NOT NULL AND proxyList != ''";
+    private static final String selectRecentAccessesString = "SELECT servAddr, userId, timeStamp FROM " + URL_TABLE
+                                                            + " WHERE timeStamp > ?";
+    private static final String insertTimeStampString = "INSERT INTO " + URL_TABLE + " VALUES (?,?,?)";
+    private static final String selectTimeoutString = "SELECT customTimeout FROM " + USER_TABLE + " WHERE userId=?";
+    private static final String updateTimeoutString = "UPDATE " + USER_TABLE + " SET customTimeout=? WHERE userId=?";
+    private static final String insertUserString = "INSERT INTO " + USER_TABLE + " VALUES (?, ?, ?)";
+
+
+    private static final boolean ROLL_UP_HOURLY = Boolean.parseBoolean(System.getProperty("isdownbot.rollUpHourly", "true"));
+    // one-off: rewrites the database at startup so incremental vacuum can return freed pages
+    private static final boolean VACUUM_ON_START = Boolean.getBoolean("isdownbot.vacuumOnStart");
+    private static final int READER_CONNECTIONS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    public DBHandler() {
+        this(BOT_DB_FILENAME, COUNTRY_DB_FILENAME);
+    }
+
+    // databases other than the configured ones, e.g. scratch copies for benchmarks
+    public DBHandler(String botDbFilename, String countryDbFilename) {
+        this.botDbFilename = botDbFilename;
+        this.countryDbFilename = countryDbFilename;
+        try {
+            botDb = new ConnectionPool(botDbFilename, READER_CONNECTIONS);
+            botDb.write("createTables", connection -> {
+                createTables(connection.connection());
+                return null;
+            });
+            migrateLegacyProxies();
+            maintenance = new UrlTableMaintenance(botDb, URL_TABLE,
+                                    TimeUnit.MINUTES.toMillis(LONGEST_WINDOW_MINUTES), ROLL_UP_HOURLY);
+            maintenance.prepareSchema(VACUUM_ON_START);
+            maintenance.start();
+            loadRecentAccesses();
+            accessLog = new AccessLogWriter(botDb, insertTimeStampString);
+        } catch (SQLException connFailed) {
+
+            logger.severe("Database connection failed: " + connFailed.getMessage());
+            if (botDb != null) {
+                logger.info("Closing " + botDbFilename + " connections...");
+                botDb.close();
+            }
+
+        }
+        reloadCountryIndex();
+    }
+
+    private static void createTables(Connection botDbConnection) throws SQLException {
+        try (Statement createIfAbsent = botDbConnection.createStatement()) {
+            createIfAbsent.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS " + USER_TABLE + " (" +
+                            "userId INTEGER PRIMARY KEY," +
+                            "proxyList TEXT," +
+                            "customTimeout INTEGER)"
+            );
+            createIfAbsent.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS " + URL_TABLE + " (" +
+                            "servAddr TEXT NOT NULL," +
+                            "userId INTEGER," +
+                            "timeStamp INTEGER NOT NULL)"
+            );
+            createIfAbsent.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS " + USER_PROXY_TABLE + " (" +
+                            "userId INTEGER NOT NULL," +
+                            "host TEXT NOT NULL," +
+                            "port INTEGER NOT NULL," +
+                            "lastStatus INTEGER," +   // 1 reachable, 0 not, NULL never checked
+                            "lastLatency INTEGER," +  // millis
+                            "lastChecked INTEGER," +  // UNIX timestamp (millis from Epoch)
+                            "PRIMARY KEY (userId, host, port))"
+            );
+            createIfAbsent.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS " + WATCH_TABLE + " (" +
+                            "userId INTEGER NOT NULL," +
+                            "host TEXT NOT NULL," +
+                            "intervalSeconds INTEGER NOT NULL," +
+                            "PRIMARY KEY (userId, host))"
+            );
+        }
+    }
+
+    // moves proxies from the old comma-joined USER_TABLE.proxyList column into USER_PROXY_TABLE rows
+    private void migrateLegacyProxies() throws SQLException {
+        int migrated = botDb.transaction("migrateLegacyProxies", connection -> {
+            int proxyCount = 0;
+            PreparedStatement insertProxyQuery = connection.prepare(insertProxyString);
+            try (ResultSet legacy = connection.prepare(selectLegacyProxiesString).executeQuery()) {
+                while (legacy.next()) {
+                    long userId = legacy.getLong("userId");
+                    for (String proxyStr : legacy.getString("proxyList").split(",")) {
+                        InetSocketAddress proxy = parseProxy(proxyStr);
+                        if (proxy == null)
+                            continue;
+                        insertProxyQuery.setLong(1, userId);
+                        insertProxyQuery.setString(2, proxy.getHostString());
+                        insertProxyQuery.setInt(3, proxy.getPort());
+                        insertProxyQuery.executeUpdate();
+                        proxyCount++;
+                    }
+                }
+            }
+            connection.prepare(clearLegacyProxiesString).executeUpdate();
+            return proxyCount;
+        });
+        if (migrated > 0)
+            logger.info("Migrated " + migrated + " proxies to " + USER_PROXY_TABLE);
+    }
+
+    // "ip:port" to an unresolved address, null if malformed
+    private static InetSocketAddress parseProxy(String proxyStr) {
+        String[] ipPortPair = proxyStr.trim().split(":");
+        if (ipPortPair.length != 2 || ipPortPair[0].isEmpty())
+            return null;
+        try {
+            return InetSocketAddress.createUnresolved(ipPortPair[0], Integer.parseInt(ipPortPair[1]));
+        } catch (IllegalArgumentException badPort) { // NumberFormatException included
+            return null;
+        }
+    }
+
+    // flushes pending url accesses and closes the connections
+    public void close() {
+        if (maintenance != null) {
+            maintenance.close();
+        }
+        if (accessLog != null) {
+            accessLog.close();
+        }
+        if (botDb != null) {
+            logger.info("Closing " + botDbFilename + " connections...");
+            botDb.close();
+        }
+    }
+
+    // (re)builds the in-memory ip -> country index, call again after updating the ip2nation data
+    public boolean reloadCountryIndex() {
+        try (Connection ip2countryDbConnection = DriverManager.getConnection("jdbc:sqlite:" + countryDbFilename)) {
+            CountryIndex loaded = CountryIndex.load(ip2countryDbConnection);
+            countryIndex = loaded;
+            logger.info("Loaded " + loaded.size() + " ip ranges from " + countryDbFilename);
+            return true;
+        } catch (SQLException loadFailed) {
+            logger.severe("Failed to load ip ranges from " + countryDbFilename + ": " + loadFailed.getMessage()
+                                                                        + "\nKeeping the previous index");
+            return false;
+        }
+    }
+
+    public boolean addUser(long userId) {
+        try {
+            botDb.write("addUser", connection -> {
+                PreparedStatement insertUserQuery = connection.prepare(insertUserString);
+                insertUserQuery.setLong(1, userId);
+                insertUserQuery.setString(2, "");
+                insertUserQuery.setInt(3, CONNECTION_WAIT_MILLIS);
+                return insertUserQuery.execute();
+            });
+            logger.fine("Userid " + userId + " inserted into " + botDbFilename);
+            return true;
+        } catch (SQLException insertFailed) {
+            logger.warning("Failed to insert userid " + userId + " into " + botDbFilename
+                                                            + ": " + insertFailed.getMessage());
+            return false;
+        }
+    }
+
+    // served from memory after the first call, invalidated by addUserProxy/clearUserProxy
+    public List<Proxy> getUserProxyList(long userId) {
+        // loading inside computeIfAbsent makes a concurrent invalidation wait for it, so no stale list survives
+        List<Proxy> proxies = userProxies.computeIfAbsent(userId, this::loadUserProxies);
+        return proxies == null ? Collections.emptyList() : proxies;
+    }
+
+    // the next getUserProxyList reloads from the database
+    void invalidateUserProxies(long userId) {
+        userProxies.remove(userId);
+    }
+
+    // null on failure, so nothing gets cached
+    private List<Proxy> loadUserProxies(long userId) {
+        try {
+            List<Proxy> loaded = Collections.unmodifiableList(botDb.read("loadUserProxies", connection -> {
+                PreparedStatement selectProxyQuery = connection.prepare(selectProxyString);
+                selectProxyQuery.setLong(1, userId);
+                List<Proxy> proxies = new ArrayList<>();
+                try (ResultSet result = selectProxyQuery.executeQuery()) {
+                    while (result.next()) {
+                        proxies.add(new Proxy(Proxy.Type.SOCKS,
+                                InetSocketAddress.createUnresolved(result.getString("host"), result.getInt("port"))));
+                    }
+                }
+                return proxies;
+            }));
+            logger.fine("Obtained " + loaded.size() + " proxies for userid " + userId);
+            return loaded;
+        } catch (SQLException getFailed) {
+            logger.warning("Failed to get proxy list for userid " + userId + ": " + getFailed.getMessage()
+                                                                        + "\nReturning empty list instead");
+            return null;
+        }
+    }
+
+    public boolean addUserProxy(long userId, String proxy) {
+        InetSocketAddress proxyAddress = parseProxy(proxy);
+        if (proxyAddress == null || !IsDownCheckHelper.checkProxy(proxy)) {
+            logger.warning("Proxy " + proxy + " unreachable, failed to add for userid " + userId);
+            return false;
+        }
+        try {
+            botDb.write("addUserProxy", connection -> {
+                PreparedStatement insertProxyQuery = connection.prepare(insertProxyString);
+                insertProxyQuery.setLong(1, userId);
+                insertProxyQuery.setString(2, proxyAddress.getHostString());
+                insertProxyQuery.setInt(3, proxyAddress.getPort());
+                return insertProxyQuery.executeUpdate();
+            });
+            invalidateUserProxies(userId);
+            logger.fine("Proxy " + proxy + " successfully set for userid " + userId);
+            return true;
+        } catch (SQLException addFailed) {
+            logger.warning("Failed to add proxy " + proxy + " for userid " + userId + ": " + addFailed.getMessage());
+            return false;
+        }
+    }
+
+    public boolean clearUserProxy(long userId) {
+        try {
+            botDb.write("clearUserProxy", connection -> {
+                PreparedStatement deleteProxyQuery = connection.prepare(deleteProxyString);
+                deleteProxyQuery.setLong(1, userId);
+                return deleteProxyQuery.executeUpdate();
+            });
+            invalidateUserProxies(userId);
+            logger.fine("Proxy for " + userId + " cleaned");
+            return true;
+        } catch (SQLException deleteFailed) {
+            logger.warning("Failed to clear proxy for userid " + userId + ": " + deleteFailed.getMessage());
+            return false;
+        }
+    }
+
+    // every distinct proxy of every user with its last known health
+    public List<ProxyStatus> getAllProxies() {
+        try {
+            return botDb.read("getAllProxies", connection -> {
+                List<ProxyStatus> proxies = new ArrayList<>();
+                try (ResultSet result = connection.prepare(selectAllProxiesString).executeQuery()) {
+                    while (result.next()) {
+                        int lastStatus = result.getInt("lastStatus");
+                        Boolean lastOk = result.wasNull() ? null : lastStatus == 1;
+                        proxies.add(new ProxyStatus(
+                                InetSocketAddress.createUnresolved(result.getString("host"), result.getInt("port")),
+                                lastOk, result.getLong("lastLatency"), result.getLong("checked")));
+                    }
+                }
+                return proxies;
+            });
+        } catch (SQLException getFailed) {
+            logger.warning("Failed to list proxies: " + getFailed.getMessage() + "\nReturning empty list instead");
+            return Collections.emptyList();
+        }
+    }
+
+    public boolean setProxyHealth(InetSocketAddress proxy, boolean ok, long latencyMillis) {
+        try {
+            botDb.write("setProxyHealth", connection -> {
+                PreparedStatement updateHealthQuery = connection.prepare(updateProxyHealthString);
+                updateHealthQuery.setInt(1, ok ? 1 : 0);
+                updateHealthQuery.setLong(2, latencyMillis);
+                updateHealthQuery.setLong(3, System.currentTimeMillis());
+                updateHealthQuery.setString(4, proxy.getHostString());
+                updateHealthQuery.setInt(5, proxy.getPort());
+                return updateHealthQuery.executeUpdate();
+            });
+            return true;
+        } catch (SQLException updateFailed) {
+            logger.warning("Failed to store health of proxy " + proxy + ": " + updateFailed.getMessage());
+            return false;
+        }
+    }
+
+    // adds the watch or changes its interval
+    public boolean addWatch(long userId, String host, int intervalSeconds) {
+        try {
+            botDb.write("addWatch", connection -> {
+                PreparedStatement upsertWatchQuery = connection.prepare(upsertWatchString);
+                upsertWatchQuery.setLong(1, userId);
+                upsertWatchQuery.setString(2, host);
+                upsertWatchQuery.setInt(3, intervalSeconds);
+                return upsertWatchQuery.executeUpdate();
+            });
+            logger.fine("User " + userId + " watches " + host + " every " + intervalSeconds + " s");
+            return true;
+        } catch (SQLException insertFailed) {
+            logger.warning("Failed to store watch of " + host + " for userid " + userId + ": " + insertFailed.getMessage());
+            return false;
+        }
+    }
+
+    public boolean removeWatch(long userId, String host) {
+        try {
+            botDb.write("removeWatch", connection -> {
+                PreparedStatement deleteWatchQuery = connection.prepare(deleteWatchString);
+                deleteWatchQuery.setLong(1, userId);
+                deleteWatchQuery.setString(2, host);
+                return deleteWatchQuery.executeUpdate();
+            });
+            logger.fine("User " + userId + " stopped watching " + host);
+            return true;
+        } catch (SQLException deleteFailed) {
+            logger.warning("Failed to remove watch of " + host + " for userid " + userId + ": " + deleteFailed.getMessage());
+            return false;
+        }
+    }
+
+    public List<WatchEntry> getAllWatches() {
+        try {
+            return botDb.read("getAllWatches", connection -> {
+                List<WatchEntry> watches = new ArrayList<>();
+                try (ResultSet result = connection.prepare(selectAllWatchesString).executeQuery()) {
+                    while (result.next()) {
+                        watches.add(new WatchEntry(result.getLong("userId"), result.getString("host"),
+                                                                            result.getInt("intervalSeconds")));
+                    }
+                }
+                return watches;
+            });
+        } catch (SQLException getFailed) {
+            logger.warning("Failed to list watches: " + getFailed.getMessage() + "\nReturning empty list instead");
+            return Collections.emptyList();
+        }
+    }
+
+    // warms the in-memory counter up with the accesses still inside the longest window
+    private void loadRecentAccesses() throws SQLException {
+        long now = System.currentTimeMillis();
+        int loaded = botDb.read("loadRecentAccesses", connection -> {
+            PreparedStatement selectRecentQuery = connection.prepare(selectRecentAccessesString);
+            selectRecentQuery.setLong(1, now - TimeUnit.MINUTES.toMillis(LONGEST_WINDOW_MINUTES));
+            int accessCount = 0;
+            try (ResultSet accesses = selectRecentQuery.executeQuery()) {
+                while (accesses.next()) {
+                    accessCounter.record(accesses.getString("servAddr"), accesses.getLong("userId"),
+                                                                        accesses.getLong("timeStamp"));
+                    accessCount++;
+                }
+            }
+            return accessCount;
+        });
+        accessCounter.evictIdle(now);
+        logger.info("Loaded " + loaded + " recent accesses for " + accessCounter.hostCount() + " hosts");
+    }
+
+    // number of distinct users who checked the url in the last N minutes (at most 24 hours)
+    public long accessedLastNMinutes(String url, long minutes) {
+        return accessCounter.distinctUsers(url, minutes, System.currentTimeMillis());
+    }
+
+    // the row is written asynchronously in a batch, false if it had to be dropped
+    public boolean setUrlAccessed(String url, long userId) {
+        long now = System.currentTimeMillis();
+        accessCounter.record(url, userId, now);
+        if (accessLog == null || !accessLog.append(url, userId, now)) {
+            logger.warning("Failed to set " + url + " accessed");
+            return false;
+        }
+        logger.fine("Added " + userId + " to " + url + "`s visitors");
+        return true;
+    }
+
+    public boolean setCustomTimeout(int newTimeout, long userId) {
+        try {
+            botDb.write("setCustomTimeout", connection -> {
+                PreparedStatement setTimeoutQuery = connection.prepare(updateTimeoutString);
+                setTimeoutQuery.setInt(1, newTimeout);
+                setTimeoutQuery.setLong(2, userId);
+                return setTimeoutQuery.executeUpdate();
+            });
+            logger.fine("Set custom timeout for " + userId + ": " + newTimeout);
+            return true;
+        } catch (SQLException updateFailed) {
+            logger.warning("Failed to set new timeout for " + userId + ": " + updateFailed.getMessage());
+            return false;
+        }
+    }
+
+    public int getCustomTimeout(long userId) {
+        try {
+            int customTimeout = botDb.read("getCustomTimeout", connection -> {
+                PreparedStatement selectTimeoutQuery = connection.prepare(selectTimeoutString);
+                selectTimeoutQuery.setLong(1, userId);
+                try (ResultSet resultSet = selectTimeoutQuery.executeQuery()) {
+                    return resultSet.next() ? resultSet.getInt("customTimeout") : CONNECTION_WAIT_MILLIS;
+                }
+            });
+            logger.fine("Obtained custom timeout for userid " + userId);
+            return customTimeout;
+        } catch (SQLException insertFailed) {
+            logger.warning("Failed to obtain customTimeout value for userid " + userId
+                                                        + ": " + insertFailed.getMessage());
+            return CONNECTION_WAIT_MILLIS;
+        }
+    }
+
+    public String getCountry(long ipValue) {
+        return countryIndex.lookUp(ipValue);
+    }
+}
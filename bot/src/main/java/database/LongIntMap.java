@@ -0,0 +1,90 @@
+package database;
+
+import java.util.function.IntPredicate;
+
+/*
+ * Open-addressing long -> int hash map on primitive arrays (no boxing).
+ * Values must be non-zero, 0 marks an empty slot. NOT thread-safe.
+ */
+class LongIntMap {
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    LongIntMap() {
+        keys = new long[MIN_CAPACITY];
+        values = new int[MIN_CAPACITY];
+    }
+
+    // 0 if absent
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return values[i];
+        }
+        return 0;
+    }
+
+    void put(long key, int value) {
+        if (value == 0)
+            throw new IllegalArgumentException("0 is reserved for empty slots");
+        if ((size + 1) * 4 > keys.length * 3)
+            rehash(keys.length * 2, v -> true);
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != 0) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    // keeps only the entries whose value satisfies the predicate, shrinks the tables if possible
+    void retainValues(IntPredicate keep) {
+        int kept = 0;
+        for (int value : values) {
+            if (value != 0 && keep.test(value))
+                kept++;
+        }
+        int capacity = MIN_CAPACITY;
+        while (kept * 4 > capacity * 3)
+            capacity *= 2;
+        rehash(capacity, keep);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash(int capacity, IntPredicate keep) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        size = 0;
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == 0 || !keep.test(oldValues[j]))
+                continue;
+            int i = slot(oldKeys[j], mask);
+            while (values[i] != 0)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+            size++;
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,37 @@
+package database;
+
+import java.net.InetSocketAddress;
+
+// last known health of a proxy as stored in the user proxy table
+public final class ProxyStatus {
+    private final InetSocketAddress address;
+    private final Boolean lastOk;
+    private final long lastLatencyMillis;
+    private final long lastChecked;
+
+    ProxyStatus(InetSocketAddress address, Boolean lastOk, long lastLatencyMillis, long lastChecked) {
+        this.address = address;
+        this.lastOk = lastOk;
+        this.lastLatencyMillis = lastLatencyMillis;
+        this.lastChecked = lastChecked;
+    }
+
+    // unresolved ip:port
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    // null if never checked
+    public Boolean getLastOk() {
+        return lastOk;
+    }
+
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    // UNIX timestamp (millis from Epoch), 0 if never checked
+    public long getLastChecked() {
+        return lastChecked;
+    }
+}
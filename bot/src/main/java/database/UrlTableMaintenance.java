@@ -0,0 +1,192 @@
+package database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/*
+ * Background upkeep of the URL access-history table: rows older than the longest reporting window
+ * are rolled into hourly aggregate rows (optional) and deleted one hour at a time, so each step
+ * holds the writer connection only briefly, then freed pages are returned with incremental vacuum
+ * (the one full VACUUM switching an existing database to it is an explicit startup step).
+ * WAL mode keeps readers unaffected while this runs.
+ */
+class UrlTableMaintenance implements AutoCloseable {
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long INITIAL_DELAY_MINUTES = 1;
+    private static final long PERIOD_MINUTES = 10;
+    private static final long AGGREGATE_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(90);
+    private static final int VACUUM_PAGES_PER_RUN = 1000;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private static final Logger logger = Logger.getLogger(UrlTableMaintenance.class.getName());
+
+    private final ConnectionPool pool;
+    private final String urlTable;
+    private final String hourlyTable;
+    private final long retentionMillis;
+    private final boolean rollUpHourly;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean incrementalVacuum = true;
+
+    private final String selectOldestString;
+    private final String insertHourlyString;
+    private final String deleteRangeString;
+    private final String deleteOldHourlyString;
+
+    UrlTableMaintenance(ConnectionPool pool, String urlTable, long retentionMillis, boolean rollUpHourly) {
+        this.pool = pool;
+        this.urlTable = urlTable;
+        this.hourlyTable = urlTable + "_hourly";
+        this.retentionMillis = retentionMillis;
+        this.rollUpHourly = rollUpHourly;
+
+        selectOldestString = "SELECT MIN(timeStamp) FROM " + urlTable;
+        insertHourlyString = "INSERT OR REPLACE INTO " + hourlyTable
+                + " SELECT servAddr, ?, COUNT(*), COUNT(DISTINCT userId) FROM " + urlTable
+                + " WHERE timeStamp >= ? AND timeStamp < ? GROUP BY servAddr";
+        deleteRangeString = "DELETE FROM " + urlTable + " WHERE timeStamp >= ? AND timeStamp < ?";
+        deleteOldHourlyString = "DELETE FROM " + hourlyTable + " WHERE hourStart < ?";
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "url-table-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+     * Creates indexes and the aggregate table, must run before the first scheduled pass.
+     * Incremental vacuum needs a full VACUUM once to take effect on an existing database. That
+     * rewrites the whole file under the write lock, so it only runs here at startup when
+     * fullVacuum is set, before any command can wait for the writer.
+     */
+    void prepareSchema(boolean fullVacuum) throws SQLException {
+        pool.write("prepareSchema", connection -> {
+            try (Statement schema = connection.connection().createStatement()) {
+                // lookups by host within a time range, and pruning/warm-up by time alone
+                schema.executeUpdate("CREATE INDEX IF NOT EXISTS " + urlTable + "_servAddr_timeStamp"
+                                                        + " ON " + urlTable + " (servAddr, timeStamp)");
+                schema.executeUpdate("CREATE INDEX IF NOT EXISTS " + urlTable + "_timeStamp"
+                                                        + " ON " + urlTable + " (timeStamp)");
+                schema.executeUpdate(
+                        "CREATE TABLE IF NOT EXISTS " + hourlyTable + " (" +
+                                "servAddr TEXT NOT NULL," +
+                                "hourStart INTEGER NOT NULL," +
+                                "accesses INTEGER NOT NULL," +
+                                "distinctUsers INTEGER NOT NULL," +
+                                "PRIMARY KEY (servAddr, hourStart))"
+                );
+                try (ResultSet autoVacuum = schema.executeQuery("PRAGMA auto_vacuum")) {
+                    if (autoVacuum.next() && autoVacuum.getInt(1) != AUTO_VACUUM_INCREMENTAL) {
+                        schema.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                        if (fullVacuum) {
+                            logger.info("Switching " + urlTable + " database to incremental auto-vacuum, running VACUUM...");
+                            long start = System.nanoTime();
+                            schema.execute("VACUUM");
+                            logger.info("VACUUM took " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                        } else {
+                            incrementalVacuum = false;
+                            logger.info(urlTable + " database is not in incremental auto-vacuum mode, freed pages are"
+                                    + " reused but not returned; start once with -Disdownbot.vacuumOnStart=true to switch");
+                        }
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::runOnce, INITIAL_DELAY_MINUTES, PERIOD_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private void runOnce() {
+        try {
+            long cutoff = (System.currentTimeMillis() - retentionMillis) / HOUR_MILLIS * HOUR_MILLIS;
+            int hours = compactBefore(cutoff);
+            if (hours > 0)
+                logger.info("Compacted " + hours + " hours of " + urlTable + " history");
+            if (rollUpHourly)
+                deleteOldAggregates(System.currentTimeMillis() - AGGREGATE_RETENTION_MILLIS);
+            vacuum();
+        } catch (SQLException | RuntimeException maintenanceFailed) {
+            // never let an exception cancel the schedule
+            logger.warning(urlTable + " maintenance failed: " + maintenanceFailed.getMessage());
+        }
+    }
+
+    // rolls up and deletes whole hours older than cutoff (hour aligned), oldest first
+    private int compactBefore(long cutoff) throws SQLException {
+        int hours = 0;
+        while (true) {
+            Long oldest = pool.read("findOldestAccess", connection -> {
+                try (ResultSet result = connection.prepare(selectOldestString).executeQuery()) {
+                    if (!result.next())
+                        return null;
+                    long timeStamp = result.getLong(1);
+                    return result.wasNull() ? null : timeStamp;
+                }
+            });
+            if (oldest == null || oldest >= cutoff)
+                return hours;
+
+            long hourStart = oldest / HOUR_MILLIS * HOUR_MILLIS;
+            long hourEnd = hourStart + HOUR_MILLIS;
+            pool.transaction("compactHour", connection -> {
+                if (rollUpHourly) {
+                    PreparedStatement insertHourlyQuery = connection.prepare(insertHourlyString);
+                    insertHourlyQuery.setLong(1, hourStart);
+                    insertHourlyQuery.setLong(2, hourStart);
+                    insertHourlyQuery.setLong(3, hourEnd);
+                    insertHourlyQuery.executeUpdate();
+                }
+                PreparedStatement deleteRangeQuery = connection.prepare(deleteRangeString);
+                deleteRangeQuery.setLong(1, hourStart);
+                deleteRangeQuery.setLong(2, hourEnd);
+                return deleteRangeQuery.executeUpdate();
+            });
+            hours++;
+        }
+    }
+
+    private void deleteOldAggregates(long before) throws SQLException {
+        pool.write("deleteOldAggregates", connection -> {
+            PreparedStatement deleteOldQuery = connection.prepare(deleteOldHourlyString);
+            deleteOldQuery.setLong(1, before);
+            return deleteOldQuery.executeUpdate();
+        });
+    }
+
+    // a bounded number of pages per run, so the writer is only held briefly
+    private void vacuum() throws SQLException {
+        if (!incrementalVacuum)
+            return;
+        pool.write("vacuum", connection -> {
+            try (Statement vacuum = connection.connection().createStatement();
+                 // every step of this pragma frees one page, so the result has to be read to the end
+                 ResultSet freed = vacuum.executeQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_RUN + ")")) {
+                while (freed.next()) {
+                    // nothing to read
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
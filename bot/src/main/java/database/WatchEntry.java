@@ -0,0 +1,26 @@
+package database;
+
+// a user's subscription to state changes of a host as stored in the watch table
+public final class WatchEntry {
+    private final long userId;
+    private final String host;
+    private final int intervalSeconds;
+
+    WatchEntry(long userId, String host, int intervalSeconds) {
+        this.userId = userId;
+        this.host = host;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getIntervalSeconds() {
+        return intervalSeconds;
+    }
+}
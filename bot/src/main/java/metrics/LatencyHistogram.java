@@ -0,0 +1,114 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Log-linear latency histogram in microseconds, HdrHistogram style: every power of two is split
+ * into SUB_BUCKETS linear buckets, so any recorded value is known within 1/SUB_BUCKETS (12.5%)
+ * from 1 us up to MAX_MICROS (about 12 days) in a few hundred counters. Recording is one array
+ * increment, there is no lock and no allocation.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_MICROS = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+
+    LatencyHistogram() {
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMillis(long millis) {
+        recordMicros(TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    // start is a System.nanoTime() value
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public void recordMicros(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_MICROS);
+        counts.incrementAndGet(bucketOf(value));
+        totalCount.increment();
+        totalMicros.add(value);
+    }
+
+    public long count() {
+        return totalCount.sum();
+    }
+
+    public long sumMicros() {
+        return totalMicros.sum();
+    }
+
+    // upper bound of the bucket holding the quantile, 0 if nothing was recorded
+    public long quantileMicros(double quantile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long count : snapshot)
+            total += count;
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank)
+                return upperBoundOf(bucket);
+        }
+        return MAX_MICROS;
+    }
+
+    // number of values at or below each bound, bounds ascending; values of a bucket
+    // crossing a bound are counted in the next one
+    long[] cumulativeCounts(long[] boundsMicros) {
+        long[] snapshot = snapshot();
+        long[] cumulative = new long[boundsMicros.length];
+        long seen = 0;
+        int bound = 0;
+        for (int bucket = 0; bucket < BUCKETS && bound < boundsMicros.length; bucket++) {
+            while (bound < boundsMicros.length && upperBoundOf(bucket) > boundsMicros[bound])
+                cumulative[bound++] = seen;
+            seen += snapshot[bucket];
+        }
+        while (bound < boundsMicros.length)
+            cumulative[bound++] = seen;
+        return cumulative;
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+            snapshot[bucket] = counts.get(bucket);
+        return snapshot;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // largest value that falls into the bucket
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,160 @@
+package metrics;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/*
+ * Process-wide metrics registry. Series are identified by name and label pairs
+ * (counter("isdownbot_probes_total", help, "route", "proxy")); asking twice returns the same
+ * instance, so callers may look series up on the hot path or keep them in fields. Gauges are the
+ * exception: registering one again rebinds it to the new supplier, so a component created anew
+ * (another DBHandler, CheckFrontEnd...) exports its own state and the old one can be collected.
+ * Everything is rendered in the Prometheus text format by scrape() and as a short
+ * human-readable summary by summary().
+ */
+public final class Metrics {
+    // le buckets exported to Prometheus, in seconds
+    private static final double[] EXPORTED_BOUNDS_SECONDS =
+            {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+    private static final long[] EXPORTED_BOUNDS_MICROS = new long[EXPORTED_BOUNDS_SECONDS.length];
+    private static final String[] EXPORTED_BOUND_LABELS = new String[EXPORTED_BOUNDS_SECONDS.length];
+    static {
+        for (int i = 0; i < EXPORTED_BOUNDS_SECONDS.length; i++) {
+            EXPORTED_BOUNDS_MICROS[i] = Math.round(EXPORTED_BOUNDS_SECONDS[i] * 1_000_000);
+            EXPORTED_BOUND_LABELS[i] = BigDecimal.valueOf(EXPORTED_BOUNDS_SECONDS[i]).toPlainString();
+        }
+    }
+
+    private enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    private static final class Family {
+        final Type type;
+        final String help;
+
+        Family(Type type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private static final Map<String, Family> families = new ConcurrentHashMap<>();
+    // series id (name{labels}) to Counter, LatencyHistogram or LongSupplier, sorted so families stay together
+    private static final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labelPairs) {
+        return (Counter) register(name, help, Type.COUNTER, labelPairs, Counter::new);
+    }
+
+    public static LatencyHistogram histogram(String name, String help, String... labelPairs) {
+        return (LatencyHistogram) register(name, help, Type.HISTOGRAM, labelPairs, LatencyHistogram::new);
+    }
+
+    // value is read on every scrape, it must be cheap and thread-safe; replaces an earlier supplier
+    public static void gauge(String name, String help, LongSupplier value, String... labelPairs) {
+        family(name, help, Type.GAUGE);
+        series.put(name + labels(labelPairs), value);
+    }
+
+    private static Object register(String name, String help, Type type, String[] labelPairs,
+                                   Supplier<Object> create) {
+        family(name, help, type);
+        String id = name + labels(labelPairs);
+        return series.computeIfAbsent(id, i -> create.get());
+    }
+
+    private static void family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(type, help));
+        if (family.type != type)
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+    }
+
+    private static String labels(String[] labelPairs) {
+        if (labelPairs.length == 0)
+            return "";
+        if (labelPairs.length % 2 != 0)
+            throw new IllegalArgumentException("Labels must be given as name, value pairs");
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < labelPairs.length; i += 2) {
+            if (i > 0)
+                labels.append(',');
+            labels.append(labelPairs[i]).append("=\"")
+                    .append(labelPairs[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    // Prometheus text exposition format 0.0.4
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        String currentFamily = null;
+        for (Map.Entry<String, Object> entry : series.entrySet()) {
+            String id = entry.getKey();
+            int labelStart = id.indexOf('{');
+            String name = (labelStart == -1) ? id : id.substring(0, labelStart);
+            String labels = (labelStart == -1) ? "" : id.substring(labelStart + 1, id.length() - 1);
+            Family family = families.get(name);
+            if (!name.equals(currentFamily)) {
+                out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+                out.append("# TYPE ").append(name).append(' ').append(family.type.name().toLowerCase(Locale.ROOT)).append('\n');
+                currentFamily = name;
+            }
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                out.append(id).append(' ').append(((Counter) metric).sum()).append('\n');
+            } else if (metric instanceof LongSupplier) {
+                out.append(id).append(' ').append(((LongSupplier) metric).getAsLong()).append('\n');
+            } else {
+                appendHistogram(out, name, labels, (LatencyHistogram) metric);
+            }
+        }
+        return out.toString();
+    }
+
+    private static void appendHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        long[] cumulative = histogram.cumulativeCounts(EXPORTED_BOUNDS_MICROS);
+        for (int i = 0; i < cumulative.length; i++) {
+            out.append(name).append("_bucket{").append(labels).append(separator)
+                    .append("le=\"").append(EXPORTED_BOUND_LABELS[i]).append("\"} ").append(cumulative[i]).append('\n');
+        }
+        long count = histogram.count();
+        out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"+Inf\"} ").append(count).append('\n');
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(histogram.sumMicros() / 1e6).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(count).append('\n');
+    }
+
+    // one line per series, histograms as count and p50/p99 in milliseconds
+    public static String summary() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Object> entry : series.entrySet()) {
+            String id = entry.getKey().startsWith("isdownbot_") ? entry.getKey().substring(10) : entry.getKey();
+            Object metric = entry.getValue();
+            out.append(id).append(": ");
+            if (metric instanceof Counter) {
+                out.append(((Counter) metric).sum());
+            } else if (metric instanceof LongSupplier) {
+                out.append(((LongSupplier) metric).getAsLong());
+            } else {
+                LatencyHistogram histogram = (LatencyHistogram) metric;
+                out.append(histogram.count()).append(" x, p50 ")
+                        .append(formatMillis(histogram.quantileMicros(0.5))).append(", p99 ")
+                        .append(formatMillis(histogram.quantileMicros(0.99)));
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String formatMillis(long micros) {
+        return String.format(Locale.ROOT, "%.1f ms", micros / 1000.0);
+    }
+}
@@ -0,0 +1,43 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+// serves Metrics.scrape() on GET /metrics for Prometheus; there is no authentication,
+// so it should only be bound where the scraper is the one reaching it
+public class MetricsServer {
+    private static final Logger logger = Logger.getLogger(MetricsServer.class.getName());
+
+    private final HttpServer server;
+
+    // bindAddress e.g. "127.0.0.1", or "0.0.0.0" for a scraper on another host
+    public MetricsServer(String bindAddress, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext("/metrics", exchange -> {
+            try (OutputStream body = exchange.getResponseBody()) {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] text = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, text.length);
+                body.write(text);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Metrics served on " + server.getAddress() + " at /metrics");
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
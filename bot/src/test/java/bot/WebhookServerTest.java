@@ -0,0 +1,65 @@
+package bot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.api.objects.Update;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WebhookServerTest {
+    private static final String PATH = "/telegram";
+    private static final String SECRET = "test-secret";
+
+    private final BlockingQueue<Update> received = new LinkedBlockingQueue<>();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private WebhookServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new WebhookServer("127.0.0.1", 0, PATH, SECRET, received::add);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void onlyUpdatesWithTheSecretGetThrough() throws Exception {
+        assertEquals(403, post(null));
+        assertEquals(403, post("test-secreT"));
+        assertEquals(403, post(SECRET + "x"));
+        assertEquals(200, post(SECRET));
+        // the update is handed over after the response
+        assertNotNull(received.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, received.size(), "only the update with the secret got through");
+    }
+
+    @Test
+    void noSecretNoServer() {
+        assertThrows(IllegalArgumentException.class, () -> new WebhookServer("127.0.0.1", 0, PATH, null, received::add));
+        assertThrows(IllegalArgumentException.class, () -> new WebhookServer("127.0.0.1", 0, PATH, "", received::add));
+    }
+
+    private int post(String secret) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.port() + PATH))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"update_id\": 1}"));
+        if (secret != null)
+            request.header("X-Telegram-Bot-Api-Secret-Token", secret);
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
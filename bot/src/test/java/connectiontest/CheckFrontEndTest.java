@@ -0,0 +1,173 @@
+package connectiontest;
+
+import database.DBHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Split mode over a LoopbackCheckQueue with a scratch database on the front end: which worker gets
+ * a host, what a job carries, a worker that never answers, and a real ProbeWorker without a database.
+ */
+class CheckFrontEndTest {
+    private static final int WORKERS = 4;
+    private static final long JOB_TIMEOUT_MILLIS = 2000;
+
+    @TempDir
+    Path directory;
+
+    private DBHandler dbConnection;
+    private LoopbackCheckQueue queue;
+    private final List<Thread> fakeWorkers = new CopyOnWriteArrayList<>();
+    private final Map<Long, CheckJob> jobs = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void openDatabase() throws SQLException {
+        // ip2nation with 10.0.0.0/8 in Testland
+        try (Connection countries = DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("ip2nation.sqlite"));
+             Statement create = countries.createStatement()) {
+            create.executeUpdate("CREATE TABLE ip2nation (ip INTEGER, country TEXT)");
+            create.executeUpdate("CREATE TABLE ip2nationCountries (code TEXT, country TEXT)");
+            create.executeUpdate("INSERT INTO ip2nation VALUES (0, 'xx'), (167772160, 'tl'), (184549376, 'xx')");
+            create.executeUpdate("INSERT INTO ip2nationCountries VALUES ('xx', 'Elsewhere'), ('tl', 'Testland')");
+        }
+        dbConnection = new DBHandler(directory.resolve("bot.sqlite").toString(), directory.resolve("ip2nation.sqlite").toString());
+        queue = new LoopbackCheckQueue(LoopbackCheckQueue.workerNames(WORKERS));
+    }
+
+    @AfterEach
+    void closeDatabase() {
+        queue.close();
+        fakeWorkers.forEach(Thread::interrupt);
+        dbConnection.close();
+    }
+
+    @Test
+    void everyCheckOfAHostGoesToTheSameWorker() {
+        startFakeWorkers(queue.workers());
+        CheckFrontEnd frontEnd = new CheckFrontEnd(queue, dbConnection, JOB_TIMEOUT_MILLIS);
+        Map<String, String> workerOfHost = new HashMap<>();
+        for (int round = 0; round < 3; round++) {
+            for (int h = 0; h < 32; h++) {
+                String host = "site" + h + ".example";
+                String worker = frontEnd.quickCheck(round == 0 ? host : "https://" + host + "/path", DownChecker.HEAD, h);
+                String first = workerOfHost.putIfAbsent(host, worker);
+                if (first != null)
+                    assertEquals(first, worker, host + " moved to another worker");
+            }
+        }
+        assertTrue(new HashSet<>(workerOfHost.values()).size() > 1, "all hosts on one worker: " + workerOfHost);
+    }
+
+    @Test
+    void jobsCarryWhatTheDatabaseSays() throws SQLException {
+        long userId = 7;
+        dbConnection.addUser(userId);
+        dbConnection.setCustomTimeout(1234, userId);
+        insertProxies(userId, "10.0.0.1:1080", "192.0.2.1:1081");
+        startFakeWorkers(queue.workers());
+        CheckFrontEnd frontEnd = new CheckFrontEnd(queue, dbConnection, JOB_TIMEOUT_MILLIS);
+
+        frontEnd.quickCheck("example.com", DownChecker.HEAD, 8);
+        frontEnd.fullCheck("https://example.com/status", DownChecker.GET, userId, report -> { });
+        CheckJob full = jobs.values().stream().filter(job -> job.getKind() == CheckJob.Kind.FULL).findFirst().get();
+        assertEquals(DownChecker.GET, full.getHttpMethod());
+        assertEquals(1234, full.getTimeOutMs());
+        assertEquals(List.of("10.0.0.1:1080", "192.0.2.1:1081"), full.getProxies());
+        assertEquals(List.of("Testland", "Elsewhere"), full.getProxyCountries());
+        assertEquals(2, full.getUsersChecked(), "the front end recorded both checks");
+        assertEquals(2, dbConnection.accessedLastNMinutes("example.com", 60));
+    }
+
+    @Test
+    void badUrlsNeverReachAWorker() {
+        CheckFrontEnd frontEnd = new CheckFrontEnd(queue, dbConnection, JOB_TIMEOUT_MILLIS);
+        assertThrows(IllegalArgumentException.class, () -> frontEnd.quickCheck("ftp://example.com", DownChecker.HEAD, 1));
+        assertEquals(0, dbConnection.accessedLastNMinutes("example.com", 60));
+    }
+
+    @Test
+    void silentWorkerTimesOut() {
+        // nobody takes jobs, every check waits out the job timeout
+        CheckFrontEnd frontEnd = new CheckFrontEnd(queue, dbConnection, 300);
+        long start = System.currentTimeMillis();
+        assertEquals("Check timed out, try again later", frontEnd.quickCheck("example.com", DownChecker.HEAD, 1));
+        long waited = System.currentTimeMillis() - start;
+        assertTrue(waited >= 300 && waited < JOB_TIMEOUT_MILLIS, "waited " + waited + " ms");
+        // a reply after the timeout is dropped
+        queue.reply(CheckReply.done(1, "too late"));
+    }
+
+    @Test
+    void probeWorkerChecksWithoutADatabase() throws IOException, InterruptedException {
+        try (ServerSocket website = new ServerSocket(0, 16, InetAddress.getLoopbackAddress())) {
+            Thread workers = new Thread(() -> {
+                try {
+                    ProbeWorker.run(queue, queue.workers());
+                } catch (InterruptedException stopped) {
+                    // test over
+                }
+            }, "test-probe-workers");
+            workers.start();
+            CheckFrontEnd frontEnd = new CheckFrontEnd(queue, dbConnection, JOB_TIMEOUT_MILLIS);
+            String report = frontEnd.quickCheck("tcp://127.0.0.1:" + website.getLocalPort(), DownChecker.HEAD, 1);
+            assertTrue(report.contains("Server status: Online"), report);
+            assertTrue(report.contains("Checked last two hours by 1 user."), report);
+            queue.close();
+            workers.join(JOB_TIMEOUT_MILLIS);
+            assertFalse(workers.isAlive(), "ProbeWorker.run returns once the queue is closed");
+        }
+    }
+
+    // reply with the worker's name, so the test sees who got the job
+    private void startFakeWorkers(List<String> names) {
+        for (String name : names) {
+            Thread worker = new Thread(() -> {
+                try {
+                    for (CheckJob job = queue.take(name); job != null; job = queue.take(name)) {
+                        jobs.put(job.getId(), job);
+                        queue.reply(CheckReply.done(job.getId(), name));
+                    }
+                } catch (InterruptedException stopped) {
+                    // test over
+                }
+            }, "fake-" + name);
+            worker.setDaemon(true);
+            worker.start();
+            fakeWorkers.add(worker);
+        }
+    }
+
+    // addUserProxy would first check the proxies are reachable
+    private void insertProxies(long userId, String... proxies) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("bot.sqlite"));
+             Statement insert = connection.createStatement()) {
+            for (String proxy : proxies) {
+                String[] hostPort = proxy.split(":");
+                insert.executeUpdate("INSERT INTO user_proxies (userId, host, port) VALUES ("
+                        + userId + ", '" + hostPort[0] + "', " + hostPort[1] + ")");
+            }
+        }
+    }
+}
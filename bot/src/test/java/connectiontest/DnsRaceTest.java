@@ -0,0 +1,112 @@
+package connectiontest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// DNS-over-HTTPS from MockDohServer (127.0.0.2) racing a stand-in for system DNS (127.0.0.1)
+class DnsRaceTest {
+    private static final int DOH_TIMEOUT_MILLIS = 2000;
+    private static final long STAGGER_MILLIS = 100;
+
+    private MockDohServer doh;
+    private final AtomicInteger systemLookups = new AtomicInteger();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        doh = new MockDohServer();
+    }
+
+    @AfterEach
+    void stopServer() {
+        doh.close();
+    }
+
+    @Test
+    void fastDohWinsWithoutAskingSystemDns() throws Exception {
+        DnsCache.Resolution resolution = race(this::systemAnswers).resolve("example.com");
+        assertEquals("127.0.0.2", first(resolution));
+        Thread.sleep(2 * STAGGER_MILLIS);
+        assertEquals(0, systemLookups.get());
+    }
+
+    @Test
+    void slowDohLosesToSystemDns() throws Exception {
+        doh.delayAnswers(1000);
+        long start = System.nanoTime();
+        DnsCache.Resolution resolution = race(this::systemAnswers).resolve("example.com");
+        assertEquals("127.0.0.1", first(resolution));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900);
+    }
+
+    @Test
+    void failedDohStartsSystemDnsWithoutTheStagger() throws Exception {
+        doh.failQueries(0);
+        long start = System.nanoTime();
+        DnsCache.Resolution resolution = new DnsRace(resolver(), this::systemAnswers, 5000).resolve("example.com");
+        assertEquals("127.0.0.1", first(resolution));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 4000);
+    }
+
+    @Test
+    void dohNxDomainIsOverruledBySystemDns() throws Exception {
+        DnsCache.Resolution resolution = race(this::systemAnswers).resolve("split-horizon.invalid");
+        assertEquals("127.0.0.1", first(resolution));
+    }
+
+    @Test
+    void nxDomainIsBelievedWhenSystemDnsAgrees() throws Exception {
+        DnsCache.Resolution resolution = race(this::systemFails).resolve("nothing.invalid");
+        assertTrue(resolution.isNegative());
+    }
+
+    @Test
+    void bothFailing() {
+        doh.failQueries(0);
+        assertThrows(UnknownHostException.class, () -> race(this::systemFails).resolve("example.com"));
+    }
+
+    @Test
+    void cachedThroughDnsCache() throws Exception {
+        DnsCache cache = new DnsCache(race(this::systemAnswers), 10);
+        cache.resolve("example.com");
+        int queries = doh.queries();
+        assertEquals("127.0.0.2", cache.resolve("example.com")[0].getHostAddress());
+        assertEquals(queries, doh.queries());
+        assertThrows(UnknownHostException.class, () -> new DnsCache(race(this::systemFails), 10).resolve("nothing.invalid"));
+    }
+
+    private DnsRace race(DnsRace.SystemResolver system) {
+        return new DnsRace(resolver(), system, STAGGER_MILLIS);
+    }
+
+    private DohResolver resolver() {
+        return new DohResolver(List.of(doh.url()), DOH_TIMEOUT_MILLIS, DnsRace.MIN_TTL_SECONDS);
+    }
+
+    private InetAddress[] systemAnswers(String hostName) throws UnknownHostException {
+        systemLookups.incrementAndGet();
+        return new InetAddress[] {InetAddress.getByAddress(hostName, new byte[] {127, 0, 0, 1})};
+    }
+
+    private InetAddress[] systemFails(String hostName) throws UnknownHostException {
+        systemLookups.incrementAndGet();
+        throw new UnknownHostException(hostName);
+    }
+
+    // the resolution's addresses are only handed out by a cache
+    private static String first(DnsCache.Resolution resolution) throws UnknownHostException {
+        return new DnsCache(hostName -> resolution, 1).resolve("any")[0].getHostAddress();
+    }
+}
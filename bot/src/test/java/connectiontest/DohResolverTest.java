@@ -0,0 +1,81 @@
+package connectiontest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DohResolverTest {
+    private static final int TIMEOUT_MILLIS = 2000;
+
+    private MockDohServer doh;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        doh = new MockDohServer();
+    }
+
+    @AfterEach
+    void stopServer() {
+        doh.close();
+    }
+
+    @Test
+    void answersIPv4First() throws Exception {
+        DohResolver.Answer answer = resolver(doh.url()).resolve("example.com").join();
+        assertArrayEquals(new InetAddress[] {InetAddress.getByName("127.0.0.2"), InetAddress.getByName("::2")},
+                          answer.getAddresses());
+        assertEquals(60, answer.getTtlSeconds());
+    }
+
+    @Test
+    void failedAaaaKeepsTheIPv4Answer() throws Exception {
+        doh.failQueries(MockDohServer.TYPE_AAAA);
+        DohResolver.Answer answer = resolver(doh.url()).resolve("example.com").join();
+        assertArrayEquals(new InetAddress[] {InetAddress.getByName("127.0.0.2")}, answer.getAddresses());
+    }
+
+    @Test
+    void failedAFailsTheLookup() {
+        doh.failQueries(MockDohServer.TYPE_A);
+        CompletionException failed = assertThrows(CompletionException.class,
+                () -> resolver(doh.url()).resolve("example.com").join());
+        assertInstanceOf(UnknownHostException.class, failed.getCause());
+    }
+
+    @Test
+    void nxDomainIsAnAnswer() {
+        DohResolver.Answer answer = resolver(doh.url()).resolve("nothing.invalid").join();
+        assertTrue(answer.isNxDomain());
+        assertEquals(0, answer.getAddresses().length);
+    }
+
+    @Test
+    void failsOverAndStaysWithTheEndpointThatAnswered() throws IOException {
+        try (MockDohServer broken = new MockDohServer()) {
+            broken.failQueries(0);
+            DohResolver resolver = resolver(broken.url() + "," + doh.url());
+            assertEquals(2, resolver.resolve("example.com").join().getAddresses().length);
+            int brokenQueries = broken.queries();
+            assertEquals(2, brokenQueries);
+            resolver.resolve("example.org").join();
+            assertEquals(brokenQueries, broken.queries(), "the failed endpoint is not asked first any more");
+        }
+    }
+
+    private static DohResolver resolver(String endpoints) {
+        List<String> parsed = DohResolver.parseEndpoints(endpoints);
+        return new DohResolver(parsed, TIMEOUT_MILLIS, DnsRace.MIN_TTL_SECONDS);
+    }
+}
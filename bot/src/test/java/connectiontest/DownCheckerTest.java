@@ -0,0 +1,104 @@
+package connectiontest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * fullCheck through a working SOCKS proxy and a dead one, with a CheckCoalescer shared by users who
+ * list the same two proxies in opposite orders.
+ */
+class DownCheckerTest {
+    private static final int TIMEOUT_MILLIS = 2000;
+
+    private ServerSocket website;
+    private ServerSocket socksProxy;
+    private String deadProxy;
+
+    @BeforeEach
+    void startServers() throws IOException {
+        website = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+        socksProxy = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+        Thread proxy = new Thread(this::serveSocks, "test-socks-proxy");
+        proxy.setDaemon(true);
+        proxy.start();
+        // a port nobody listens on any more
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            deadProxy = "127.0.0.1:" + closed.getLocalPort();
+        }
+    }
+
+    @AfterEach
+    void stopServers() throws IOException {
+        socksProxy.close();
+        website.close();
+    }
+
+    @Test
+    void cachedCellsFollowEachUsersProxyOrder() {
+        String liveProxy = "127.0.0.1:" + socksProxy.getLocalPort();
+        CheckCoalescer coalescer = new CheckCoalescer(3000, 15_000);
+
+        String first = fullCheck(coalescer, 1, liveProxy, deadProxy);
+        String second = fullCheck(coalescer, 2, deadProxy, liveProxy);
+
+        assertFalse(first.contains("(cached"), first);
+        assertTrue(second.contains("(cached"), second);
+        for (String report : List.of(first, second)) {
+            assertTrue(report.contains("With proxy " + liveProxy + ": OK"), report);
+            assertTrue(report.contains("With proxy " + deadProxy + ": FAILED"), report);
+        }
+    }
+
+    @Test
+    void hugeStoredTimeoutStillWaitsForTheProbes() {
+        String report = fullCheck(null, 1, Integer.MAX_VALUE, "127.0.0.1:" + socksProxy.getLocalPort());
+        assertFalse(report.contains("NO ANSWER"), report);
+        assertTrue(report.contains("Without proxy: OK"), report);
+    }
+
+    private String fullCheck(CheckCoalescer coalescer, long userId, String... proxies) {
+        return fullCheck(coalescer, userId, TIMEOUT_MILLIS, proxies);
+    }
+
+    private String fullCheck(CheckCoalescer coalescer, long userId, int timeOutMs, String... proxies) {
+        CheckJob job = new CheckJob(userId, CheckJob.Kind.FULL, "tcp://127.0.0.1:" + website.getLocalPort(),
+                                    DownChecker.HEAD, userId, timeOutMs, List.of(proxies),
+                                    Arrays.asList(new String[proxies.length]), 1);
+        return new DownChecker(job, coalescer, null).fullCheck(null);
+    }
+
+    // SOCKSv5 without authentication that answers every CONNECT with success and never connects anywhere
+    private void serveSocks() {
+        while (!socksProxy.isClosed()) {
+            try (Socket client = socksProxy.accept()) {
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                OutputStream out = client.getOutputStream();
+                in.readFully(new byte[3]); // version, one method, no authentication
+                out.write(new byte[] {5, 0});
+                byte[] request = new byte[4]; // version, CONNECT, reserved, address type
+                in.readFully(request);
+                int addressLength = (request[3] == 1) ? 4 : (request[3] == 4) ? 16 : in.readUnsignedByte();
+                in.readFully(new byte[addressLength + 2]);
+                out.write(new byte[] {5, 0, 0, 1, 0, 0, 0, 0, 0, 0});
+                // hold the tunnel until the probe hangs up
+                while (in.read() != -1) {
+                }
+            } catch (IOException closed) {
+                // test over, or the probe hung up early
+            }
+        }
+    }
+}
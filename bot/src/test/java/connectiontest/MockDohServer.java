@@ -0,0 +1,85 @@
+package connectiontest;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * JSON DNS-over-HTTPS endpoint on 127.0.0.1 answering every name with 127.0.0.2 and ::2
+ * (addresses system DNS never gives for "localhost") and NXDOMAIN for *.invalid. Answers can be
+ * held back, and either query type can be made to fail with an HTTP error.
+ */
+final class MockDohServer implements AutoCloseable {
+    static final int TYPE_A = 1;
+    static final int TYPE_AAAA = 28;
+
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger queries = new AtomicInteger();
+    private volatile int delayMillis = 0;
+    private volatile int failingType = -1;
+
+    MockDohServer() throws IOException {
+        // without it every answer waits out a delayed ACK (40 ms on Linux) between headers and body
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        server.setExecutor(handlers);
+        server.createContext("/resolve", exchange -> {
+            queries.incrementAndGet();
+            String query = exchange.getRequestURI().getQuery();
+            int type = query.contains("type=" + TYPE_AAAA) ? TYPE_AAAA : TYPE_A;
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException stopping) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (type == failingType || failingType == 0) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            String answer = query.contains(".invalid") ? "{\"Status\":3}"
+                    : "{\"Status\":0,\"Answer\":[{\"type\":" + type + ",\"TTL\":60,\"data\":\""
+                    + (type == TYPE_A ? "127.0.0.2" : "::2") + "\"}]}";
+            byte[] body = answer.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/dns-json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/resolve?name=";
+    }
+
+    void delayAnswers(int millis) {
+        delayMillis = millis;
+    }
+
+    // TYPE_A or TYPE_AAAA queries get 503, 0 for all of them, -1 for none
+    void failQueries(int type) {
+        failingType = type;
+    }
+
+    int queries() {
+        return queries.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+}
@@ -0,0 +1,282 @@
+package connectiontest;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Every probe through a real ProbeEngine against servers on 127.0.0.1: a web server answering
+ * HEAD with 501 (as some do) and GET with 200 (502 for /broken), a TLS server with a self-signed certificate for
+ * localhost the test trusts, and UDP DNS servers answering with a fixed rcode.
+ */
+class ProbeTest {
+    private static final int TIMEOUT_MILLIS = 2000;
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+    private static final int RCODE_SERVFAIL = 2;
+    private static final int RCODE_REFUSED = 5;
+    private static final char[] PASSWORD = "probetest".toCharArray();
+
+    private static final List<String> methods = new CopyOnWriteArrayList<>();
+    private static final List<String> paths = new CopyOnWriteArrayList<>();
+    private static final List<DatagramChannel> dnsServers = new CopyOnWriteArrayList<>();
+    private static ProbeEngine engine;
+    private static HttpServer web;
+    private static SSLServerSocket tls;
+    private static SSLContext previousDefault;
+
+    @BeforeAll
+    static void startServers() throws Exception {
+        engine = new ProbeEngine(1);
+
+        web = HttpServer.create(new InetSocketAddress(LOOPBACK, 0), 64);
+        web.createContext("/", exchange -> {
+            methods.add(exchange.getRequestMethod());
+            paths.add(exchange.getRequestURI().toString());
+            int status = exchange.getRequestMethod().equals("HEAD") ? 501
+                    : exchange.getRequestURI().getPath().equals("/broken") ? 502 : 200;
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        web.start();
+
+        KeyStore keys = selfSignedLocalhost();
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keys, PASSWORD);
+        SSLContext server = SSLContext.getInstance("TLS");
+        server.init(keyManagers.getKeyManagers(), null, null);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keys);
+        SSLContext client = SSLContext.getInstance("TLS");
+        client.init(null, trustManagers.getTrustManagers(), null);
+        // TlsSession verifies against the default context
+        previousDefault = SSLContext.getDefault();
+        SSLContext.setDefault(client);
+
+        tls = (SSLServerSocket) server.getServerSocketFactory().createServerSocket(0, 64, LOOPBACK);
+        Thread handshakes = new Thread(ProbeTest::handshakeLoop, "test-tls");
+        handshakes.setDaemon(true);
+        handshakes.start();
+    }
+
+    @AfterAll
+    static void stopServers() throws IOException {
+        SSLContext.setDefault(previousDefault);
+        engine.shutdown();
+        web.stop(0);
+        tls.close();
+        for (DatagramChannel dns : dnsServers)
+            dns.close();
+    }
+
+    @Test
+    void tcpConnects() {
+        ProbeResult result = probe(Probe.TCP, null, web.getAddress());
+        assertTrue(result.isAvailable(), result.toString());
+        assertTrue(result.getPhaseMillis(ProbeResult.Phase.CONNECT) >= 0);
+    }
+
+    @Test
+    void outOfRangeTimeoutsAreClamped() {
+        // 0 would time out before connecting, -1 is what /setTimeout 4294967295 used to store
+        for (int timeOutMs : new int[] {0, -1}) {
+            ProbeResult result = engine.probe(Probe.TCP, null, web.getAddress(), null, timeOutMs).join();
+            assertTrue(result.isAvailable(), result.toString());
+        }
+        assertEquals(ProbeEngine.MAX_TIMEOUT_MILLIS, ProbeEngine.clampTimeout(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void tcpToClosedPortFails() throws IOException {
+        InetSocketAddress closed;
+        try (ServerSocket released = new ServerSocket(0, 1, LOOPBACK)) {
+            closed = (InetSocketAddress) released.getLocalSocketAddress();
+        }
+        ProbeResult result = probe(Probe.TCP, null, closed);
+        assertFalse(result.isAvailable(), result.toString());
+    }
+
+    @Test
+    void httpHeadAnsweredWith501IsDown() {
+        ProbeResult result = probe(Probe.HTTP, "localhost", web.getAddress());
+        assertFalse(result.isAvailable());
+        assertEquals("HTTP 501", result.getError());
+    }
+
+    @Test
+    void httpGetSucceedsWhereHeadIsNotImplemented() {
+        ProbeResult result = probe(Probe.HTTP_GET, "localhost", web.getAddress());
+        assertTrue(result.isAvailable(), result.toString());
+        assertEquals("HTTP 200", result.getDetail());
+        assertTrue(methods.contains("GET"));
+        assertTrue(result.getPhaseMillis(ProbeResult.Phase.FIRST_BYTE) >= 0);
+    }
+
+    @Test
+    void methodIsTheUsersChoiceNotTheUrls() {
+        assertSame(Probe.HTTP_GET, Probe.forUrl("http://example.com/", Probe.GET));
+        assertSame(Probe.HTTPS, Probe.forUrl("https://example.com", Probe.HEAD));
+        assertSame(Probe.TCP, Probe.forUrl("example.com"));
+        // the site's own parameters go to the site
+        assertEquals("https /search?method=post", Probe.forUrl("https://shop.example/search?method=post").name());
+        assertEquals("http GET /?method=head", Probe.forUrl("http://example.com/?method=head", Probe.GET).name());
+        assertThrows(IllegalArgumentException.class, () -> Probe.forUrl("dns://1.1.1.1", Probe.GET));
+        assertThrows(IllegalArgumentException.class, () -> Probe.forUrl("http://example.com", "POST"));
+        assertEquals("https GET", Probe.HTTPS_GET.name());
+    }
+
+    @Test
+    void httpRequestsTheUrlsPathAndQuery() {
+        Probe healthCheck = Probe.forUrl("http://localhost/api/health?full=1", Probe.GET);
+        ProbeResult health = probe(healthCheck, "localhost", web.getAddress());
+        assertTrue(health.isAvailable(), health.toString());
+        assertTrue(paths.contains("/api/health?full=1"), paths.toString());
+        ProbeResult broken = probe(Probe.forUrl("http://localhost/broken", Probe.GET), "localhost", web.getAddress());
+        assertFalse(broken.isAvailable());
+        assertEquals("HTTP 502", broken.getError());
+    }
+
+    @Test
+    void requestTargetIsOriginFormAndSafe() {
+        assertEquals("/", HostParser.requestTargetOf("example.com"));
+        assertEquals("/", HostParser.requestTargetOf("https://example.com#top"));
+        assertEquals("/?x=1", HostParser.requestTargetOf("https://example.com?x=1"));
+        assertEquals("/a/b?c=d", HostParser.requestTargetOf("https://user@example.com:8443/a/b?c=d#e"));
+        assertEquals("/a%20b%0D%0AX-Injected:%201", HostParser.requestTargetOf("http://example.com/a b\r\nX-Injected: 1"));
+        assertEquals("/caf%C3%A9", HostParser.requestTargetOf("http://example.com/caf\u00e9"));
+    }
+
+    @Test
+    void tlsHandshakeWithTrustedCertificate() {
+        ProbeResult result = probe(Probe.TLS, "localhost", tlsAddress());
+        assertTrue(result.isAvailable(), result.toString());
+        assertTrue(result.getDetail().startsWith("TLSv1"), result.getDetail());
+        assertTrue(result.getPhaseMillis(ProbeResult.Phase.TLS) >= 0);
+    }
+
+    @Test
+    void tlsCertificateForAnotherNameFails() {
+        ProbeResult result = probe(Probe.TLS, "example.com", tlsAddress());
+        assertFalse(result.isAvailable(), result.toString());
+    }
+
+    @Test
+    void tlsToPlainHttpServerFails() {
+        ProbeResult result = probe(Probe.TLS, "localhost", web.getAddress());
+        assertFalse(result.isAvailable(), result.toString());
+    }
+
+    @Test
+    void dnsRefusedIsStillAnAnswer() throws IOException {
+        ProbeResult result = probe(Probe.DNS, null, dnsServer(RCODE_REFUSED));
+        assertTrue(result.isAvailable(), result.toString());
+        assertEquals("DNS REFUSED", result.getDetail());
+    }
+
+    @Test
+    void dnsServfailIsDown() throws IOException {
+        ProbeResult result = probe(Probe.DNS, null, dnsServer(RCODE_SERVFAIL));
+        assertFalse(result.isAvailable());
+        assertEquals("DNS SERVFAIL", result.getError());
+    }
+
+    @Test
+    void silentDnsServerTimesOut() throws IOException {
+        DatagramChannel silent = DatagramChannel.open().bind(new InetSocketAddress(LOOPBACK, 0));
+        dnsServers.add(silent);
+        ProbeResult result = engine.probe(Probe.DNS, null, (InetSocketAddress) silent.getLocalAddress(), null, 300).join();
+        assertFalse(result.isAvailable());
+        assertEquals(ProbeEngine.TIMED_OUT, result.getError());
+    }
+
+    private static ProbeResult probe(Probe probe, String hostName, InetSocketAddress target) {
+        return engine.probe(probe, hostName, target, null, TIMEOUT_MILLIS).join();
+    }
+
+    private static InetSocketAddress tlsAddress() {
+        return new InetSocketAddress(LOOPBACK, tls.getLocalPort());
+    }
+
+    // answers every query with the header flipped to a response carrying rcode
+    private static InetSocketAddress dnsServer(int rcode) throws IOException {
+        DatagramChannel dns = DatagramChannel.open().bind(new InetSocketAddress(LOOPBACK, 0));
+        dnsServers.add(dns);
+        Thread responder = new Thread(() -> {
+            ByteBuffer packet = ByteBuffer.allocate(512);
+            try {
+                while (true) {
+                    packet.clear();
+                    SocketAddress client = dns.receive(packet);
+                    packet.flip();
+                    packet.put(2, (byte) (packet.get(2) | 0x80)).put(3, (byte) rcode);
+                    dns.send(packet, client);
+                }
+            } catch (ClosedChannelException closed) {
+                // test over
+            } catch (IOException failed) {
+                throw new RuntimeException(failed);
+            }
+        }, "test-dns");
+        responder.setDaemon(true);
+        responder.start();
+        return (InetSocketAddress) dns.getLocalAddress();
+    }
+
+    private static void handshakeLoop() {
+        while (!tls.isClosed()) {
+            try (SSLSocket accepted = (SSLSocket) tls.accept()) {
+                accepted.startHandshake();
+            } catch (IOException handshakeFailed) {
+                // refused certificates end here too
+            }
+        }
+    }
+
+    // keytool is the only certificate generator the JDK ships
+    private static KeyStore selfSignedLocalhost() throws Exception {
+        Path directory = Files.createTempDirectory("probe-test");
+        Path file = directory.resolve("localhost.p12");
+        Process keytool = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "localhost", "-keyalg", "EC", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2", "-storetype", "PKCS12",
+                "-keystore", file.toString(), "-storepass", new String(PASSWORD))
+                .redirectErrorStream(true).start();
+        byte[] output = keytool.getInputStream().readAllBytes();
+        if (keytool.waitFor() != 0)
+            throw new IOException("keytool failed: " + new String(output));
+        KeyStore keys = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(file)) {
+            keys.load(in, PASSWORD);
+        }
+        Files.delete(file);
+        Files.delete(directory);
+        return keys;
+    }
+}
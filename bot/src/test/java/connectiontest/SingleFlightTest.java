@@ -0,0 +1,26 @@
+package connectiontest;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class SingleFlightTest {
+
+    @Test
+    void loaderErrorDoesNotStrandTheKey() {
+        SingleFlight<String, String> flights = new SingleFlight<>(60_000);
+        AssertionError broken = new AssertionError("broken loader");
+        assertSame(broken, assertThrows(AssertionError.class, () -> flights.get("key", () -> {
+            throw broken;
+        })));
+        assertEquals(0, flights.size());
+        // a flight left running would make this wait forever
+        assertEquals("loaded again", assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> flights.get("key", () -> "loaded again")));
+    }
+}
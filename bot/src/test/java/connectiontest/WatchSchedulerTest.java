@@ -0,0 +1,54 @@
+package connectiontest;
+
+import database.DBHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+// watches only ever connect to the default TCP port, urls asking for more are refused before anything is stored
+class WatchSchedulerTest {
+    private final WatchScheduler scheduler = new WatchScheduler(null, (userId, host, up, probe) -> { });
+
+    @Test
+    void refusesUrlsItWouldNotProbeAsAsked() {
+        assertEquals(WatchScheduler.Result.UNSUPPORTED_PROBE, scheduler.watch(1, "https://example.com", 300));
+        assertEquals(WatchScheduler.Result.UNSUPPORTED_PROBE, scheduler.watch(1, "dns://1.1.1.1", 300));
+        assertEquals(WatchScheduler.Result.UNSUPPORTED_PROBE, scheduler.watch(1, "http://example.com/health", 300));
+        assertEquals(WatchScheduler.Result.UNSUPPORTED_PROBE, scheduler.watch(1, "example.com:8080", 300));
+        assertEquals(WatchScheduler.Result.UNSUPPORTED_PROBE, scheduler.watch(1, "tcp://example.com:22", 300));
+    }
+
+    @Test
+    void badUrlsAreInvalidHosts() {
+        assertEquals(WatchScheduler.Result.INVALID_HOST, scheduler.watch(1, "example.com:http", 300));
+        assertEquals(WatchScheduler.Result.INVALID_HOST, scheduler.watch(1, "ftp://example.com", 300));
+    }
+
+    @Test
+    void callersDoNotWaitForAStoppedOwnerThread(@TempDir Path directory) {
+        DBHandler dbConnection = new DBHandler(directory.resolve("bot.sqlite").toString(),
+                                               directory.resolve("ip2nation.sqlite").toString());
+        try {
+            WatchScheduler stopped = new WatchScheduler(dbConnection, (userId, host, up, probe) -> { });
+            stopped.start();
+            stopped.shutdown();
+            // calls may still be served until the owner thread notices the interrupt, none may hang after
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                while (true) {
+                    try {
+                        stopped.watchesOf(1);
+                    } catch (IllegalStateException notRunning) {
+                        return;
+                    }
+                }
+            });
+        } finally {
+            dbConnection.close();
+        }
+    }
+}
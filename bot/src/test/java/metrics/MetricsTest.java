@@ -0,0 +1,27 @@
+package metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+
+    @Test
+    void gaugeFollowsTheLatestRegistration() {
+        Metrics.gauge("test_gauge_rebound", "Rebound gauge", () -> 1);
+        Metrics.gauge("test_gauge_rebound", "Rebound gauge", () -> 2);
+        String scraped = Metrics.scrape();
+        assertTrue(scraped.contains("test_gauge_rebound 2\n"), scraped);
+        assertFalse(scraped.contains("test_gauge_rebound 1\n"), scraped);
+    }
+
+    @Test
+    void countersAreShared() {
+        assertSame(Metrics.counter("test_counter_shared", "Shared counter", "route", "direct"),
+                   Metrics.counter("test_counter_shared", "Shared counter", "route", "direct"));
+        assertThrows(IllegalArgumentException.class, () -> Metrics.gauge("test_counter_shared", "Not a gauge", () -> 0));
+    }
+}
@@ -1,18 +0,0 @@
-package bot;
-
-import org.telegram.telegrambots.ApiContextInitializer;
-import org.telegram.telegrambots.TelegramBotsApi;
-import org.telegram.telegrambots.exceptions.TelegramApiException;
-
-public class MainActivity {
-
-    public static void main(String[] args) {
-        ApiContextInitializer.init();
-        TelegramBotsApi api = new TelegramBotsApi();
-        try {
-            api.registerBot(new BotInstance());
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
-        }
-    }
-}